@@ -0,0 +1,111 @@
+package com.adaptris.testing;
+
+import com.adaptris.core.runtime.AdapterManagerMBean;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import javax.management.MBeanServerConnection;
+import java.io.File;
+import java.net.ServerSocket;
+import java.util.Properties;
+
+/**
+ * JMH state that boots an adapter once per trial, for benchmarks in the {@code jmh} source set.
+ * <p>
+ * The adapter is launched in process ({@link AdapterInstance#launch()}) or forked
+ * ({@link AdapterInstance#launchProcess()}) depending on the {@code launchMode} parameter, from the bootstrap file in
+ * the {@code bootstrapFile} parameter. Benchmarks get the adapter's web server URL, a pooled HTTP client and its JMX
+ * proxies. Extend this class to customise the bootstrap or variables properties.
+ * </p>
+ * <pre>{@code
+ * @Benchmark
+ * public void postOrder(AdapterBenchmarkState adapter) throws Exception {
+ *     adapter.getClient().execute(new HttpPost(adapter.getBaseAdapterUrl() + "/api/orders"), response -> null);
+ * }
+ * }</pre>
+ */
+@State(Scope.Benchmark)
+public class AdapterBenchmarkState {
+    public static final String IN_PROCESS = "inProcess";
+    public static final String FORKED = "forked";
+
+    @Param({FORKED})
+    public String launchMode;
+
+    @Param({"./config/bootstrap.properties"})
+    public String bootstrapFile;
+
+    protected int adapterStartWaitTime = 1000;
+    protected int adapterStartMaxWaitTime = 60000;
+    protected int adapterCloseMaxWaitTime = 10000;
+    protected int maxConnections = 200;
+
+    protected AdapterInstance instance;
+    protected CloseableHttpClient client;
+
+    @Setup(Level.Trial)
+    public void startAdapter() throws Exception {
+        instance = new AdapterInstance(new File(bootstrapFile));
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            instance.setServerPort(serverSocket.getLocalPort());
+        }
+        instance.customiseBootstrap(customiseBootstrap(instance, new Properties()));
+        instance.customiseVariables(customiseVariables(instance, new Properties()));
+        instance.writeVariables();
+        instance.writeBootstrap();
+        if (FORKED.equals(launchMode)) {
+            instance.launchProcess();
+        } else {
+            instance.launch();
+        }
+        instance.waitForStarted(adapterStartWaitTime, adapterStartMaxWaitTime);
+        client = HttpClients.custom()
+                .setConnectionManager(PoolingHttpClientConnectionManagerBuilder.create()
+                        .setMaxConnTotal(maxConnections).setMaxConnPerRoute(maxConnections).build())
+                .build();
+    }
+
+    @TearDown(Level.Trial)
+    public void stopAdapter() throws Exception {
+        try {
+            if (client != null) client.close();
+        } finally {
+            if (instance != null) instance.shutdown(adapterCloseMaxWaitTime);
+        }
+    }
+
+    protected Properties customiseBootstrap(AdapterInstance instance, Properties properties) throws Exception {
+        return properties;
+    }
+
+    protected Properties customiseVariables(AdapterInstance instance, Properties properties) throws Exception {
+        return properties;
+    }
+
+    public AdapterInstance getInstance() {
+        return instance;
+    }
+
+    public String getBaseAdapterUrl() {
+        return instance.getBaseAdapterUrl();
+    }
+
+    public CloseableHttpClient getClient() {
+        return client;
+    }
+
+    public AdapterManagerMBean getAdapterManagerMBean() {
+        return instance.adapterManagerMBean;
+    }
+
+    public MBeanServerConnection getMBeanServerConnection() throws Exception {
+        return instance.getMBeanServerConnection();
+    }
+}
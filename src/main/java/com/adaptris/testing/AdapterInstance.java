@@ -1,27 +1,48 @@
 package com.adaptris.testing;
 
+import com.adaptris.core.ClosedState;
 import com.adaptris.core.ComponentState;
 import com.adaptris.core.StartedState;
 import com.adaptris.core.fs.FsHelper;
 import com.adaptris.core.runtime.AdapterManagerMBean;
-import com.adaptris.core.runtime.AdapterRegistryMBean;
+import com.adaptris.core.runtime.WorkflowManagerMBean;
 import com.adaptris.interlok.boot.InterlokLauncher;
 import com.adaptris.util.license.LicenseCreatorFactory;
 import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import javax.management.JMX;
-import javax.management.ObjectInstance;
+import javax.management.MBeanServerConnection;
 import javax.management.ObjectName;
 import javax.management.remote.JMXConnector;
-import javax.management.remote.JMXConnectorFactory;
 import javax.management.remote.JMXServiceURL;
 import java.io.*;
 import java.nio.charset.Charset;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Pattern;
 
 public class AdapterInstance {
+    private static final Logger log = LoggerFactory.getLogger(AdapterInstance.class);
+
+    /**
+     * How an adapter stopped: {@code CLEAN} if it closed over JMX and its JVM (if forked) exited when asked,
+     * {@code FORCED} if it had to be force closed or its JVM killed, {@code FAILED} if it was still running at the
+     * deadline or (in this JVM) could not be closed over JMX.
+     */
+    public enum ShutdownResult {
+        CLEAN, FORCED, FAILED
+    }
+
     protected File bootstrapFile;
     protected File variablesFile;
     protected File licenseFile;
@@ -30,9 +51,23 @@ public class AdapterInstance {
     protected Integer serverPort;
     protected JMXServiceURL jmxServiceUrl;
     protected JMXConnector jmxConnector;
+    protected AdapterJmx jmx;
+    protected ObjectName adapterObjectName;
     protected AdapterManagerMBean adapterManagerMBean;
     protected boolean isFailover = false;
     protected Process process;
+    protected Thread shutdownHook;
+
+    protected ConfigSandbox sandbox;
+    protected JmxMetricsSampler metricsSampler;
+    protected LogTailer logTailer;
+    protected IsolatedAdapterHost isolatedHost;
+    protected StartupTimings startupTimings;
+    protected LaunchProfile launchProfile = LaunchProfile.defaults();
+    protected LaunchProfile.Launch lastLaunch;
+    protected long launchStartTime;
+    protected long startupMillis = -1;
+    protected boolean reconfigured = false;
 
     protected Object lock = null;
 
@@ -70,18 +105,87 @@ public class AdapterInstance {
     }
 
     protected void writeBootstrap() {
-        try (OutputStream os = new FileOutputStream(bootstrapFile)) {
+        getStartupTimings().beginIfIdle();
+        try (OutputStream os = new FileOutputStream(getLaunchBootstrapFile())) {
             bootstrapProperties.setProperty("variable-substitution.properties.url.0", buildPositionalVariablesFile());
-            bootstrapProperties.store(os, null);
+            Properties launch = new Properties();
+            launch.putAll(bootstrapProperties);
+            if (isLicensed()) {
+                // in the bootstrap too, so isolated adapters find it from threads outside their host (e.g. JMX calls).
+                launch.setProperty("adp.license.location", licenseFile.getAbsolutePath());
+            }
+            if (sandbox != null) {
+                sandbox.rewritePaths(launch);
+                launch.setProperty("jmxserviceurl", jmxServiceUrl.toString());
+            }
+            launch.store(os, null);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
+        getStartupTimings().mark(StartupTimings.Phase.CONFIG_REWRITE);
     }
 
     protected String buildPositionalVariablesFile() {
+        if (sandbox != null) {
+            return sandbox.file(variablesFile.getName() + "." + position).getAbsolutePath();
+        }
         return variablesFile.getAbsolutePath() + "." + position;
     }
 
+    /**
+     * Write this instance's configuration, license and logs to the given sandbox rather than alongside the original
+     * bootstrap file, and move its JMX service URL to a port from {@link PortAllocator}.
+     */
+    public AdapterInstance withSandbox(ConfigSandbox sandbox) throws Exception {
+        this.sandbox = sandbox;
+        jmxServiceUrl = PortAllocator.withPort(jmxServiceUrl, PortAllocator.getInstance().nextPort());
+        return this;
+    }
+
+    public ConfigSandbox getSandbox() {
+        return sandbox;
+    }
+
+    /**
+     * @return the bootstrap file the adapter is actually launched with; the sandboxed copy if there is a sandbox.
+     */
+    public File getLaunchBootstrapFile() {
+        return sandbox != null ? sandbox.writable(bootstrapFile.getName()) : bootstrapFile;
+    }
+
+    public File getLogFile() {
+        String name = "adapter.log." + position;
+        return sandbox != null ? sandbox.file(name) : new File(name);
+    }
+
+    /**
+     * @return a tailer following {@link #getLogFile()}, started on first use; it is replaced each time the adapter is
+     * launched with {@link #launchProcess()}, so it only sees the output of the current launch.
+     */
+    public synchronized LogTailer getLogTailer() {
+        if (logTailer == null) {
+            logTailer = new LogTailer(getLogFile().toPath()).start();
+        }
+        return logTailer;
+    }
+
+    /**
+     * Wait for a line of the forked adapter's output to match the pattern.
+     *
+     * @return the matching line.
+     * @throws TimeoutException if no line matches within the timeout.
+     */
+    public String awaitLogMatch(Pattern pattern, Duration timeout) throws TimeoutException, InterruptedException {
+        return getLogTailer().awaitLogMatch(pattern, timeout);
+    }
+
+    protected synchronized void closeLogTailer() {
+        if (logTailer != null) {
+            logTailer.close();
+            logTailer = null;
+        }
+    }
+
     protected void customiseVariables(Properties props) {
         variablesProperties.put("testing.adapterPosition",  String.valueOf(position));
         variablesProperties.putAll(props);
@@ -102,6 +206,7 @@ public class AdapterInstance {
     }
 
     protected void writeVariables() {
+        getStartupTimings().beginIfIdle();
         try (OutputStream os = new FileOutputStream(buildPositionalVariablesFile())) {
             variablesProperties.store(os, null);
         } catch (Exception e) {
@@ -109,6 +214,23 @@ public class AdapterInstance {
         }
     }
 
+    /**
+     * @return a fingerprint of this instance's configuration, see {@link SharedAdapterPool#fingerprint(File, Properties, Properties)}.
+     */
+    public String fingerprint() {
+        return SharedAdapterPool.fingerprint(bootstrapFile, bootstrapProperties, variablesProperties);
+    }
+
+    /**
+     * Use an existing JMX connection, e.g. to an adapter that was launched outside of this instance.
+     */
+    protected void adoptJMX(AdapterJmx jmx) throws Exception {
+        this.jmx = jmx;
+        this.jmxConnector = jmx.getConnector();
+        this.adapterObjectName = jmx.getAdapterName();
+        this.adapterManagerMBean = jmx.getAdapter();
+    }
+
     public boolean isVariablesFileExists() {
         return variablesFile != null && variablesFile.exists();
     }
@@ -123,6 +245,10 @@ public class AdapterInstance {
         return serverPort;
     }
 
+    public String getBaseAdapterUrl() {
+        return String.format("http://localhost:%d", serverPort);
+    }
+
     public File getBootstrapFile() {
         return bootstrapFile;
     }
@@ -137,13 +263,152 @@ public class AdapterInstance {
 
     public void connectJMX() throws Exception {
         if (jmxServiceUrl == null) throw new RuntimeException("JMX service URL not set");
-        jmxConnector = JMXConnectorFactory.connect(jmxServiceUrl);
-        ObjectInstance adapterRegistry = jmxConnector.getMBeanServerConnection().getObjectInstance(ObjectName.getInstance(AdapterRegistryMBean.STANDARD_REGISTRY_JMX_NAME));
-        AdapterRegistryMBean adapterRegistryProxy = JMX.newMBeanProxy(jmxConnector.getMBeanServerConnection(), adapterRegistry.getObjectName(), AdapterRegistryMBean.class);
-        assert adapterRegistryProxy != null : "AdapterRegistry not found";
-        ObjectName adapterName = adapterRegistryProxy.getAdapters().stream().findFirst().orElseThrow();
-        adapterManagerMBean = JMX.newMBeanProxy(jmxConnector.getMBeanServerConnection(), adapterName, AdapterManagerMBean.class);
-        assert adapterManagerMBean != null : "AdapterManagerMBean not found";
+        if (isolatedHost != null) {
+            ObjectName hosted = isolatedHost.getAdapterName();
+            if (hosted == null) throw new RuntimeException("Adapter " + position + " has not registered its MBeans yet");
+            adoptJMX(AdapterJmx.connect(jmxServiceUrl, hosted));
+            return;
+        }
+        adoptJMX(AdapterJmx.connect(jmxServiceUrl));
+    }
+
+    /**
+     * @return the JMX access layer for this adapter, with cached proxies for its registry, adapter, channel and
+     * workflow MBeans.
+     */
+    public AdapterJmx getJmx() {
+        return jmx;
+    }
+
+    public MBeanServerConnection getMBeanServerConnection() {
+        try {
+            return jmx.getConnection();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Start sampling this adapter's JVM and workflow metrics to
+     * {@code <reports>/metrics/<reportName>/adapter-<position>.csv}, replacing any sampler that is already running.
+     */
+    public JmxMetricsSampler startMetricsSampler(long intervalMillis, String reportName) throws Exception {
+        stopMetricsSampler();
+        metricsSampler = new JmxMetricsSampler(this::getMBeanServerConnection,
+                TestReports.reportFile("metrics", reportName, "adapter-" + position + ".csv"), intervalMillis).start();
+        return metricsSampler;
+    }
+
+    /**
+     * @return an injector that sends messages straight into the workflow over JMX; see {@link MessageInjector}.
+     */
+    public MessageInjector messageInjector(String channelId, String workflowId) throws Exception {
+        return messageInjector(jmx.getWorkflowName(channelId, workflowId));
+    }
+
+    public MessageInjector messageInjector(ObjectName workflow) {
+        return new MessageInjector(jmx.getProxy(workflow, WorkflowManagerMBean.class), "adapter-" + position + " " + workflow.getKeyProperty("id"));
+    }
+
+    /**
+     * @return an injector for each workflow of the adapter, e.g. to compare their service chains with the same
+     * messages.
+     */
+    public Map<ObjectName, MessageInjector> messageInjectors() throws Exception {
+        Map<ObjectName, MessageInjector> injectors = new LinkedHashMap<>();
+        for (ObjectName workflow : jmx.getWorkflowNames()) {
+            injectors.put(workflow, messageInjector(workflow));
+        }
+        return injectors;
+    }
+
+    /**
+     * @return a flight recording of this adapter's JVM, written to {@code <reports>/jfr/<name>-adapter-<position>.jfr};
+     * see {@link FlightRecording}.
+     */
+    public FlightRecording flightRecording(String name) {
+        return new FlightRecording(this::getMBeanServerConnection, name + "-adapter-" + position);
+    }
+
+    /**
+     * @return a check that runs the workload against this adapter in repeated rounds and fails if its old generation,
+     * threads, open files or loaded classes keep growing; see {@link LeakCheck}.
+     */
+    public LeakCheck leakCheck(String name, LeakCheck.Workload workload) {
+        return new LeakCheck(this::getMBeanServerConnection, workload).withName(name + "-adapter-" + position);
+    }
+
+    public void stopMetricsSampler() throws IOException {
+        if (metricsSampler != null) {
+            metricsSampler.stop();
+            metricsSampler = null;
+        }
+    }
+
+    /**
+     * Replace the running adapter's configuration with the given adapter XML and wait for it to start again, keeping
+     * the JVM, the JMX connection and the Jetty port.
+     *
+     * @param adapterXml the new adapter configuration; variables are not substituted.
+     * @param timeoutMillis the time allowed to close the old adapter and start the new one.
+     */
+    public void reconfigure(String adapterXml, int adapterStartWaitTime, int timeoutMillis) throws Exception {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        jmx.replaceAdapter(adapterXml, timeoutMillis);
+        restartAfterReconfigure(adapterStartWaitTime, deadline);
+    }
+
+    /**
+     * Apply the given variables on top of the current ones, then reload the adapter from its bootstrap configuration
+     * and wait for it to start again, keeping the JVM, the JMX connection and the Jetty port.
+     */
+    public void reconfigure(Properties variables, int adapterStartWaitTime, int timeoutMillis) throws Exception {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        customiseVariables(variables);
+        writeVariables();
+        jmx.reloadAdapter(timeoutMillis);
+        restartAfterReconfigure(adapterStartWaitTime, deadline);
+    }
+
+    /**
+     * Pick up the MBeans of the replaced (or reloaded) adapter, start it by the deadline and mark this instance as
+     * {@link #isReconfigured() reconfigured}.
+     */
+    protected void restartAfterReconfigure(int adapterStartWaitTime, long deadline) throws Exception {
+        reconfigured = true;
+        adoptJMX(jmx);
+        adapterManagerMBean.requestStart(Math.max(1, deadline - System.currentTimeMillis()));
+        new AdapterReadiness(getMBeanServerConnection(), adapterObjectName, adapterManagerMBean)
+                .awaitStarted(adapterStartWaitTime, deadline);
+    }
+
+    /**
+     * @return true if the adapter is no longer running the configuration it was launched with.
+     */
+    public boolean isReconfigured() {
+        return reconfigured;
+    }
+
+    /**
+     * Close the JMX connection and forget the adapter's MBeans, e.g. after the adapter's JVM has gone away; the next
+     * {@link #connectJMX()} starts afresh.
+     */
+    public void disconnectJMX() {
+        if (jmx != null) {
+            try {
+                jmx.close();
+            } catch (IOException e) {
+                // the JVM has probably gone already.
+            }
+        }
+        jmx = null;
+        jmxConnector = null;
+        adapterObjectName = null;
+        adapterManagerMBean = null;
+    }
+
+    public Process getProcess() {
+        return process;
     }
 
     public ComponentState getComponentState() {
@@ -151,10 +416,12 @@ public class AdapterInstance {
     }
 
     public Void launch() throws Exception {
+        launchStartTime = System.currentTimeMillis();
+        lastLaunch = null;
         if (this.isLicensed()) {
             System.setProperty("adp.license.location", licenseFile.getAbsolutePath());
         }
-        List<String> args = new LinkedList<>(List.of(bootstrapFile.getAbsolutePath()));
+        List<String> args = new LinkedList<>(List.of(getLaunchBootstrapFile().getAbsolutePath()));
         if (this.isFailover) {
             args.add("--failover");
         }
@@ -163,81 +430,284 @@ public class AdapterInstance {
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
+        getStartupTimings().mark(StartupTimings.Phase.LAUNCH);
         return null;
     }
 
+    /**
+     * Launch the adapter inside this JVM in its own class loader, with its own view of the system properties; see
+     * {@link IsolatedAdapterHost}. Unlike {@link #launch()}, several instances can be launched this way at once.
+     */
+    public Void launchIsolated() throws Exception {
+        launchStartTime = System.currentTimeMillis();
+        lastLaunch = null;
+        closeIsolatedHost();
+        isolatedHost = new IsolatedAdapterHost("adapter-" + position, new File("lib"));
+        if (this.isLicensed()) {
+            isolatedHost.withSystemProperty("adp.license.location", licenseFile.getAbsolutePath());
+        }
+        List<String> args = new LinkedList<>(List.of(getLaunchBootstrapFile().getAbsolutePath()));
+        if (this.isFailover) {
+            args.add("--failover");
+        }
+        isolatedHost.launch(args.toArray(new String[0]));
+        getStartupTimings().mark(StartupTimings.Phase.LAUNCH);
+        return null;
+    }
+
+    protected void closeIsolatedHost() {
+        if (isolatedHost == null) return;
+        try {
+            isolatedHost.close();
+        } catch (IOException e) {
+            log.warn("Could not close the class loader of adapter {}: {}", position, e.getMessage());
+        }
+        isolatedHost = null;
+    }
+
     public Void launchProcess() throws Exception {
         ProcessBuilder pb = new ProcessBuilder();
         List<String> commands = new LinkedList<>();
         String javaCommand = Arrays.stream(ProcessHandle.current().info().commandLine().get().split(" ")).findFirst().get();
         commands.add(javaCommand);
-        commands.add("-jar");
-        commands.add("lib/interlok-boot.jar");
+        lastLaunch = launchProfile.prepare(new File("lib"));
+        commands.addAll(lastLaunch.getJvmOptions());
         if (this.isLicensed()) {
             commands.add("-Dadp.license.location=" + licenseFile.getAbsolutePath());
         }
-        commands.add(bootstrapFile.getAbsolutePath());
+        commands.add("-jar");
+        commands.add("lib/interlok-boot.jar");
+        commands.add(getLaunchBootstrapFile().getAbsolutePath());
         if (this.isFailover) {
             commands.add("--failover");
         }
         pb.command(commands);
-        pb.redirectError(new File("adapter.log." + position));
-        pb.redirectOutput(new File("adapter.log." + position));
+        pb.redirectErrorStream(true);
+        pb.redirectOutput(getLogFile());
         pb.directory(new File("").getAbsoluteFile());
-        process = pb.start();
-        Runtime.getRuntime().addShutdownHook(new Thread(this::shutdownProcess));
+        closeLogTailer();
+        launchStartTime = System.currentTimeMillis();
+        try {
+            process = pb.start();
+        } catch (IOException e) {
+            lastLaunch.exited();
+            throw e;
+        }
+        process.onExit().thenRun(lastLaunch::exited);
+        getStartupTimings().mark(StartupTimings.Phase.LAUNCH);
+        removeShutdownHook();
+        shutdownHook = new Thread(this::shutdownProcess, "adapter-shutdown-" + position);
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
         return null;
     }
 
+    /**
+     * @return the phase timings of this instance's startup, named {@code adapter-<position>} unless set with
+     * {@link #withStartupTimings(StartupTimings)}.
+     */
+    public synchronized StartupTimings getStartupTimings() {
+        if (startupTimings == null) {
+            startupTimings = new StartupTimings("adapter-" + position);
+        }
+        return startupTimings;
+    }
+
+    public synchronized AdapterInstance withStartupTimings(StartupTimings startupTimings) {
+        this.startupTimings = startupTimings;
+        return this;
+    }
+
+    /**
+     * Use the given JVM options when this instance is started with {@link #launchProcess()}.
+     */
+    public AdapterInstance withLaunchProfile(LaunchProfile launchProfile) {
+        this.launchProfile = launchProfile;
+        return this;
+    }
+
+    public LaunchProfile getLaunchProfile() {
+        return launchProfile;
+    }
+
+    /**
+     * @return the time from launch to {@link StartedState} for the last launch, or -1 if it has not started.
+     */
+    public long getStartupMillis() {
+        return startupMillis;
+    }
+
+    /**
+     * Append the startup time of the last launch to {@code <reports>/startup/profiles.csv}, so that launch profiles
+     * can be compared with {@link StartupProfiles#summarise()}.
+     */
+    protected void recordStartup() {
+        String profile = lastLaunch == null ? "inProcess" : launchProfile.getName();
+        String cds = lastLaunch == null ? LaunchProfile.CdsState.NONE.name() : lastLaunch.getCdsState().name();
+        StartupProfiles.record(profile, cds, position, startupMillis);
+    }
+
     public void shutdownProcess() {
         if (process != null && process.isAlive()) process.destroy();
     }
 
+    protected synchronized void removeShutdownHook() {
+        if (shutdownHook == null) return;
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            // the JVM is already shutting down and the hook will run anyway.
+        }
+        shutdownHook = null;
+    }
+
     public boolean isJmxConnected() {
-        return jmxConnector != null;
+        return jmx != null;
+    }
+
+    /**
+     * Launch this instance on the given executor and wait for it to reach {@link StartedState}.
+     *
+     * @param launchFn the launch step, e.g. {@code this::launch} or {@code this::launchProcess}.
+     * @param executor the executor to run the launch and readiness check on.
+     * @param adapterStartWaitTime the time to wait between state checks.
+     * @param deadline the absolute time (as per {@link System#currentTimeMillis()}) by which the adapter must have started.
+     * @return a future that completes with this instance once it has started.
+     */
+    public CompletableFuture<AdapterInstance> launchAsync(Callable<Void> launchFn, Executor executor, int adapterStartWaitTime, long deadline) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                launchFn.call();
+                waitForStartedBy(adapterStartWaitTime, deadline);
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+            return this;
+        }, executor);
+    }
+
+    public int getPosition() {
+        return position;
     }
 
     protected void waitForStarted(int adapterStartWaitTime, int adapterStartMaxWaitTime) throws Exception {
-        long startTime = System.currentTimeMillis();
-        while(this.adapterManagerMBean == null || !adapterManagerMBean.getComponentState().getClass().equals(StartedState.class)) {
-            if (this.adapterManagerMBean == null) {
-                try {
-                    connectJMX();
-                } catch (Exception ex) {
-                    Thread.sleep(adapterStartWaitTime);
-                    // ignore
-                    ex.printStackTrace();
-                }
-            } else {
-                Thread.sleep(adapterStartWaitTime);
+        waitForStartedBy(adapterStartWaitTime, System.currentTimeMillis() + adapterStartMaxWaitTime);
+    }
+
+    protected void waitForStartedBy(int adapterStartWaitTime, long deadline) throws Exception {
+        connectJMXBy(adapterStartWaitTime, deadline);
+        new AdapterReadiness(getMBeanServerConnection(), adapterObjectName, adapterManagerMBean)
+                .withStateObserver(getStartupTimings()::observe)
+                .awaitStarted(adapterStartWaitTime, deadline);
+        getStartupTimings().finish();
+        if (launchStartTime > 0) {
+            startupMillis = System.currentTimeMillis() - launchStartTime;
+            recordStartup();
+        }
+    }
+
+    /**
+     * Connect to JMX, retrying with a {@link Backoff} until the adapter's JMX server is available.
+     */
+    protected void connectJMXBy(int maxRetryInterval, long deadline) throws Exception {
+        Backoff backoff = new Backoff(maxRetryInterval);
+        Exception lastFailure = null;
+        while (this.adapterManagerMBean == null) {
+            if (System.currentTimeMillis() >= deadline) {
+                throw new RuntimeException("AdapterManagerMBean wait time exceeded", lastFailure);
             }
-            long totalWaitTime = System.currentTimeMillis() - startTime;
-            if (totalWaitTime >= adapterStartMaxWaitTime) {
-                throw new RuntimeException("AdapterManagerMBean wait time exceeded");
+            try {
+                connectJMX();
+            } catch (Exception ex) {
+                lastFailure = ex;
+                backoff.sleep(deadline);
             }
         }
+        getStartupTimings().mark(StartupTimings.Phase.JMX_CONNECT);
     }
 
     public void shutdown(int adapterCloseMaxWaitTime) throws Exception {
+        if (shutdownBy(System.currentTimeMillis() + adapterCloseMaxWaitTime) == ShutdownResult.FAILED) {
+            throw new RuntimeException("Adapter " + position + " did not stop within " + adapterCloseMaxWaitTime + "ms");
+        }
+    }
+
+    /**
+     * Stop the adapter by the deadline, escalating as the time runs out: stop and then close it over JMX (using up to
+     * half the time), force close it, then ask its JVM to exit (up to 80% of the time), then kill the JVM. An adapter
+     * in this JVM can only be stopped over JMX, so if that fails it is {@link ShutdownResult#FAILED}.
+     *
+     * @param deadline the absolute time (as per {@link System#currentTimeMillis()}) by which it must have stopped.
+     */
+    public ShutdownResult shutdownBy(long deadline) {
+        long start = System.currentTimeMillis();
+        long budget = Math.max(1, deadline - start);
+        boolean clean = true;
+        boolean closed = adapterManagerMBean == null;
         try {
-            if (adapterManagerMBean != null) {
+            stopMetricsSampler();
+        } catch (IOException e) {
+            // the report is incomplete, but that does not stop the adapter stopping.
+        }
+        closeLogTailer();
+        if (adapterManagerMBean != null) {
+            try {
                 try {
-                    adapterManagerMBean.requestStop(adapterCloseMaxWaitTime);
+                    adapterManagerMBean.requestStop(Math.max(1, budget / 4));
                 } finally {
-                    adapterManagerMBean.requestClose(adapterCloseMaxWaitTime);
-                    adapterManagerMBean.forceClose();
+                    adapterManagerMBean.requestClose(Math.max(1, start + budget / 2 - System.currentTimeMillis()));
                 }
+                closed = adapterManagerMBean.getComponentState() instanceof ClosedState;
+            } catch (Exception e) {
+                // force closed below.
             }
-        } finally {
-            if (jmxConnector != null) {
+            if (!closed) {
+                clean = false;
                 try {
-                    jmxConnector.close();
-                } finally {
-                    jmxConnector = null;
-                    shutdownProcess();
+                    adapterManagerMBean.forceClose();
+                    closed = adapterManagerMBean.getComponentState() instanceof ClosedState;
+                } catch (Exception e) {
+                    // the JVM is killed below if there is one.
                 }
             }
         }
+        disconnectJMX();
+        closeIsolatedHost();
+        if (process == null) {
+            if (!closed) return ShutdownResult.FAILED;
+            return clean ? ShutdownResult.CLEAN : ShutdownResult.FORCED;
+        }
+        ProcessHandle handle = process.toHandle();
+        CompletableFuture<ProcessHandle> exit = handle.onExit();
+        if (handle.isAlive()) {
+            handle.destroy();
+            if (!awaitExit(exit, start + budget * 4 / 5)) {
+                clean = false;
+                handle.descendants().forEach(ProcessHandle::destroyForcibly);
+                handle.destroyForcibly();
+                if (!awaitExit(exit, deadline)) return ShutdownResult.FAILED;
+            }
+        }
+        removeShutdownHook();
+        return clean ? ShutdownResult.CLEAN : ShutdownResult.FORCED;
+    }
+
+    /**
+     * {@link #shutdownBy(long)} on the given executor.
+     */
+    public CompletableFuture<ShutdownResult> shutdownAsync(long deadline, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> shutdownBy(deadline), executor);
+    }
+
+    private static boolean awaitExit(CompletableFuture<ProcessHandle> exit, long until) {
+        try {
+            exit.get(Math.max(0, until - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            return true;
+        } catch (TimeoutException | ExecutionException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
     }
 
     public AdapterInstance withLicense() throws Exception {
@@ -252,7 +722,7 @@ public class AdapterInstance {
     public AdapterInstance withLicense(String type) throws Exception {
         Map<String, Object> config = Map.of("expiryDate", LocalDate.now().plusDays(1), "type", type);
         String license = LicenseCreatorFactory.getCreator(config).create();
-        licenseFile = Paths.get("config/license.properties").toFile();
+        licenseFile = sandbox != null ? sandbox.writable("license.properties") : Paths.get("config/license.properties").toFile();
         if (licenseFile.exists()) {
             licenseFile.delete();
         }
@@ -0,0 +1,347 @@
+package com.adaptris.testing;
+
+import com.adaptris.core.ComponentState;
+import com.adaptris.core.runtime.AdapterManagerMBean;
+import com.adaptris.core.runtime.AdapterRegistryMBean;
+import com.adaptris.core.runtime.ChannelManagerMBean;
+import com.adaptris.core.runtime.WorkflowManagerMBean;
+
+import javax.management.Attribute;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMX;
+import javax.management.MBeanServerConnection;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnectionNotification;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.rmi.RemoteException;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * JMX access to an adapter: cached MBean proxies, bulk attribute reads and automatic reconnection.
+ * <p>
+ * Proxies for the registry, adapter, channel and workflow MBeans are created once and cached. They always use the
+ * current connection, so they keep working after the connector is re-established. A dropped connection (a
+ * {@link JMXConnectionNotification#FAILED} or {@link JMXConnectionNotification#CLOSED} notification, or an
+ * {@link IOException} from a call) causes the next call to reconnect and retry once.
+ * </p>
+ * <p>
+ * {@link #getAttributes(ObjectName, String...)} reads several attributes of one MBean in a single round trip, and
+ * {@link #getAttributes(Collection, String...)} does the same for each of many MBeans, so checking every workflow
+ * costs one round trip per workflow rather than one per workflow and attribute. The workflow names are cached until
+ * the adapter is {@link #refresh() refreshed}.
+ * </p>
+ */
+public class AdapterJmx implements AutoCloseable {
+    private final JMXServiceURL jmxServiceUrl;
+    private final Map<String, Object> proxies = new ConcurrentHashMap<>();
+    private final NotificationListener connectionListener = (notification, handback) -> {
+        String type = notification.getType();
+        if (JMXConnectionNotification.FAILED.equals(type) || JMXConnectionNotification.CLOSED.equals(type)) {
+            markStale();
+        }
+    };
+
+    private volatile JMXConnector connector;
+    private volatile boolean stale = true;
+    private volatile boolean closed = false;
+    private volatile ObjectName adapterName;
+    private volatile Set<ObjectName> workflowNames;
+
+    public AdapterJmx(JMXServiceURL jmxServiceUrl) {
+        this.jmxServiceUrl = jmxServiceUrl;
+    }
+
+    /**
+     * Connect to the adapter and find its AdapterManager; fails if either is not available yet.
+     */
+    public static AdapterJmx connect(JMXServiceURL jmxServiceUrl) throws Exception {
+        AdapterJmx jmx = new AdapterJmx(jmxServiceUrl);
+        try {
+            jmx.getAdapterName();
+        } catch (Exception e) {
+            jmx.close();
+            throw e;
+        }
+        return jmx;
+    }
+
+    /**
+     * Connect to the adapter with the given AdapterManager name, rather than the first one in the registry; fails if
+     * it is not registered yet.
+     */
+    public static AdapterJmx connect(JMXServiceURL jmxServiceUrl, ObjectName adapterName) throws Exception {
+        AdapterJmx jmx = new AdapterJmx(jmxServiceUrl);
+        try {
+            if (!jmx.getConnection().isRegistered(adapterName)) throw new InstanceNotFoundException(adapterName.toString());
+            jmx.adapterName = adapterName;
+        } catch (Exception e) {
+            jmx.close();
+            throw e;
+        }
+        return jmx;
+    }
+
+    public JMXServiceURL getJmxServiceUrl() {
+        return jmxServiceUrl;
+    }
+
+    /**
+     * @return the current connector, reconnecting first if the previous one dropped.
+     */
+    public synchronized JMXConnector getConnector() throws IOException {
+        if (closed) throw new IOException("Connection to " + jmxServiceUrl + " has been closed");
+        if (stale || connector == null) {
+            closeConnector();
+            connector = JMXConnectorFactory.connect(jmxServiceUrl);
+            connector.addConnectionNotificationListener(connectionListener, null, null);
+            stale = false;
+        }
+        return connector;
+    }
+
+    public MBeanServerConnection getConnection() throws IOException {
+        return getConnector().getMBeanServerConnection();
+    }
+
+    public void markStale() {
+        stale = true;
+    }
+
+    public AdapterRegistryMBean getRegistry() throws Exception {
+        return getProxy(ObjectName.getInstance(AdapterRegistryMBean.STANDARD_REGISTRY_JMX_NAME), AdapterRegistryMBean.class);
+    }
+
+    /**
+     * @return the name of the (first) adapter in the registry.
+     */
+    public ObjectName getAdapterName() throws Exception {
+        if (adapterName == null) {
+            AdapterRegistryMBean registry = getRegistry();
+            adapterName = registry.getAdapters().stream().findFirst().orElseThrow();
+        }
+        return adapterName;
+    }
+
+    public AdapterManagerMBean getAdapter() throws Exception {
+        return getProxy(getAdapterName(), AdapterManagerMBean.class);
+    }
+
+    public ChannelManagerMBean getChannel(String channelId) throws Exception {
+        return getProxy(getChannelName(channelId), ChannelManagerMBean.class);
+    }
+
+    public WorkflowManagerMBean getWorkflow(String channelId, String workflowId) throws Exception {
+        return getProxy(getWorkflowName(channelId, workflowId), WorkflowManagerMBean.class);
+    }
+
+    public ObjectName getChannelName(String channelId) throws Exception {
+        return findById(getAdapter().getChildren(), channelId, "Channel");
+    }
+
+    public ObjectName getWorkflowName(String channelId, String workflowId) throws Exception {
+        return findById(getChannel(channelId).getChildren(), workflowId, "Workflow");
+    }
+
+    /**
+     * @return the names of every workflow in every channel of the adapter.
+     */
+    public Set<ObjectName> getWorkflowNames() throws Exception {
+        Set<ObjectName> workflows = workflowNames;
+        if (workflows == null) {
+            workflows = new LinkedHashSet<>();
+            for (ObjectName channel : getAdapter().getChildren()) {
+                workflows.addAll(getProxy(channel, ChannelManagerMBean.class).getChildren());
+            }
+            workflows = Collections.unmodifiableSet(workflows);
+            workflowNames = workflows;
+        }
+        return workflows;
+    }
+
+    /**
+     * @return a cached proxy for the MBean, which reconnects if the connection drops.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getProxy(ObjectName name, Class<T> type) {
+        return (T) proxies.computeIfAbsent(type.getName() + "|" + name, key -> Proxy.newProxyInstance(type.getClassLoader(),
+                new Class<?>[] {type}, new ReconnectingHandler(name, type)));
+    }
+
+    /**
+     * Read several attributes of one MBean in a single round trip.
+     */
+    public Map<String, Object> getAttributes(ObjectName name, String... attributes) throws Exception {
+        return withReconnect(() -> {
+            Map<String, Object> values = new LinkedHashMap<>();
+            for (Attribute attribute : getConnection().getAttributes(name, attributes).asList()) {
+                values.put(attribute.getName(), attribute.getValue());
+            }
+            return values;
+        });
+    }
+
+    /**
+     * Read the same attributes from many MBeans, with one round trip per MBean.
+     */
+    public Map<ObjectName, Map<String, Object>> getAttributes(Collection<ObjectName> names, String... attributes) throws Exception {
+        Map<ObjectName, Map<String, Object>> results = new LinkedHashMap<>();
+        for (ObjectName name : names) {
+            results.put(name, getAttributes(name, attributes));
+        }
+        return results;
+    }
+
+    public Map<ObjectName, ComponentState> getComponentStates(Collection<ObjectName> names) throws Exception {
+        Map<ObjectName, ComponentState> states = new LinkedHashMap<>();
+        getAttributes(names, "ComponentState").forEach((name, values) -> states.put(name, (ComponentState) values.get("ComponentState")));
+        return states;
+    }
+
+    public Map<ObjectName, ComponentState> getWorkflowStates() throws Exception {
+        return getComponentStates(getWorkflowNames());
+    }
+
+    /**
+     * Close the adapter and replace it in the registry with one built from the given configuration, leaving it
+     * closed. The JVM, the JMX connector and the management components (e.g. Jetty) are left running.
+     *
+     * @return the name of the new adapter.
+     */
+    public ObjectName replaceAdapter(String adapterXml, long closeTimeout) throws Exception {
+        AdapterRegistryMBean registry = getRegistry();
+        destroyAdapter(registry, closeTimeout);
+        ObjectName name = registry.createAdapter(adapterXml);
+        adapterName = name;
+        return name;
+    }
+
+    /**
+     * Close the adapter and reload it from the configuration (and variables) its bootstrap properties point at,
+     * leaving it closed. The JVM, the JMX connector and the management components are left running.
+     *
+     * @return the name of the reloaded adapter.
+     */
+    public ObjectName reloadAdapter(long closeTimeout) throws Exception {
+        AdapterRegistryMBean registry = getRegistry();
+        destroyAdapter(registry, closeTimeout);
+        ObjectName name = registry.reloadFromConfig();
+        adapterName = name;
+        return name;
+    }
+
+    private void destroyAdapter(AdapterRegistryMBean registry, long closeTimeout) throws Exception {
+        AdapterManagerMBean adapter = getAdapter();
+        try {
+            adapter.requestClose(closeTimeout);
+        } finally {
+            registry.destroyAdapter(adapter);
+            refresh();
+        }
+    }
+
+    /**
+     * Forget the cached adapter and workflow names, e.g. after the adapter has been replaced in the registry.
+     */
+    public void refresh() {
+        adapterName = null;
+        workflowNames = null;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        closeConnector();
+    }
+
+    private void closeConnector() throws IOException {
+        JMXConnector toClose = connector;
+        connector = null;
+        if (toClose != null) {
+            try {
+                toClose.removeConnectionNotificationListener(connectionListener);
+            } catch (Exception e) {
+                // already gone.
+            }
+            toClose.close();
+        }
+    }
+
+    private ObjectName findById(Set<ObjectName> names, String id, String type) {
+        return names.stream().filter(name -> id.equals(name.getKeyProperty("id"))).findFirst()
+                .orElseThrow(() -> new IllegalArgumentException(type + " not found: " + id));
+    }
+
+    private <T> T withReconnect(Callable<T> call) throws Exception {
+        try {
+            return call.call();
+        } catch (IOException e) {
+            if (closed) throw e;
+            markStale();
+            return call.call();
+        }
+    }
+
+    private static boolean isConnectionFailure(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof IOException || cause instanceof RemoteException) return true;
+        }
+        return false;
+    }
+
+    private class ReconnectingHandler implements InvocationHandler {
+        private final ObjectName name;
+        private final Class<?> type;
+        private Object delegate;
+        private JMXConnector delegateConnector;
+
+        private ReconnectingHandler(ObjectName name, Class<?> type) {
+            this.name = name;
+            this.type = type;
+        }
+
+        private synchronized Object delegate() throws IOException {
+            JMXConnector current = getConnector();
+            if (delegate == null || delegateConnector != current) {
+                delegate = JMX.newMBeanProxy(current.getMBeanServerConnection(), name, type);
+                delegateConnector = current;
+            }
+            return delegate;
+        }
+
+        @Override
+        public Object invoke(Object proxy, java.lang.reflect.Method method, Object[] args) throws Throwable {
+            if (method.getDeclaringClass() == Object.class) {
+                switch (method.getName()) {
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    default:
+                        return "Proxy[" + type.getSimpleName() + ":" + name + "]";
+                }
+            }
+            try {
+                return method.invoke(delegate(), args);
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause() instanceof UndeclaredThrowableException ? e.getCause().getCause() : e.getCause();
+                if (closed || !isConnectionFailure(cause)) throw e.getCause();
+                markStale();
+                try {
+                    return method.invoke(delegate(), args);
+                } catch (InvocationTargetException retry) {
+                    throw retry.getCause();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.adaptris.testing;
+
+import com.adaptris.core.ComponentState;
+import com.adaptris.core.StartedState;
+import com.adaptris.core.runtime.AdapterManagerMBean;
+
+import javax.management.MBeanServerConnection;
+import javax.management.NotificationBroadcaster;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+import java.util.function.Consumer;
+
+/**
+ * Waits for an adapter to reach a given state.
+ * <p>
+ * A notification listener is registered against the adapter MBean, so that each lifecycle notification
+ * triggers a state check straight away. The state is still re-checked at most every
+ * {@code maxPollInterval} ms in case a notification is missed. If the adapter MBean does not support
+ * notifications then the state is polled with a {@link Backoff} instead.
+ * </p>
+ */
+public class AdapterReadiness {
+    private final MBeanServerConnection connection;
+    private final ObjectName adapterName;
+    private final AdapterManagerMBean adapterManagerMBean;
+
+    private Consumer<ComponentState> stateObserver;
+
+    private final Object monitor = new Object();
+    private long notificationCount = 0;
+
+    public AdapterReadiness(MBeanServerConnection connection, ObjectName adapterName, AdapterManagerMBean adapterManagerMBean) {
+        this.connection = connection;
+        this.adapterName = adapterName;
+        this.adapterManagerMBean = adapterManagerMBean;
+    }
+
+    /**
+     * @param stateObserver called with the adapter state each time it is checked.
+     */
+    public AdapterReadiness withStateObserver(Consumer<ComponentState> stateObserver) {
+        this.stateObserver = stateObserver;
+        return this;
+    }
+
+    public void awaitStarted(long maxPollInterval, long deadline) throws Exception {
+        awaitState(StartedState.class, maxPollInterval, deadline);
+    }
+
+    /**
+     * @param state the state to wait for.
+     * @param maxPollInterval the longest time to go without checking the state.
+     * @param deadline the absolute time (as per {@link System#currentTimeMillis()}) by which the state must be reached.
+     */
+    public void awaitState(Class<? extends ComponentState> state, long maxPollInterval, long deadline) throws Exception {
+        NotificationListener listener = (notification, handback) -> {
+            synchronized (monitor) {
+                notificationCount++;
+                monitor.notifyAll();
+            }
+        };
+        boolean subscribed = subscribe(listener);
+        Backoff backoff = new Backoff(maxPollInterval);
+        try {
+            long seen = notificationCount();
+            while (!isInState(state)) {
+                if (System.currentTimeMillis() >= deadline) {
+                    throw new RuntimeException("AdapterManagerMBean wait time exceeded");
+                }
+                if (subscribed) {
+                    seen = awaitNotification(seen, Math.min(deadline, System.currentTimeMillis() + maxPollInterval));
+                } else {
+                    backoff.sleep(deadline);
+                }
+            }
+        } finally {
+            if (subscribed) unsubscribe(listener);
+        }
+    }
+
+    protected boolean isInState(Class<? extends ComponentState> state) {
+        ComponentState current = adapterManagerMBean.getComponentState();
+        if (stateObserver != null) stateObserver.accept(current);
+        return current.getClass().equals(state);
+    }
+
+    private long notificationCount() {
+        synchronized (monitor) {
+            return notificationCount;
+        }
+    }
+
+    private long awaitNotification(long seen, long waitUntil) throws InterruptedException {
+        synchronized (monitor) {
+            long remaining;
+            while (notificationCount == seen && (remaining = waitUntil - System.currentTimeMillis()) > 0) {
+                monitor.wait(remaining);
+            }
+            return notificationCount;
+        }
+    }
+
+    private boolean subscribe(NotificationListener listener) {
+        try {
+            if (!connection.isInstanceOf(adapterName, NotificationBroadcaster.class.getName())) {
+                return false;
+            }
+            connection.addNotificationListener(adapterName, listener, null, null);
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private void unsubscribe(NotificationListener listener) {
+        try {
+            connection.removeNotificationListener(adapterName, listener);
+        } catch (Exception e) {
+            // the connection may already have gone away, nothing more to clean up.
+        }
+    }
+}
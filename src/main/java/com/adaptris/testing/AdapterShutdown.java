@@ -0,0 +1,77 @@
+package com.adaptris.testing;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Stops a set of adapters concurrently, all against one deadline, see {@link AdapterInstance#shutdownBy(long)}.
+ */
+public class AdapterShutdown {
+    private static final Logger log = LoggerFactory.getLogger(AdapterShutdown.class);
+
+    /**
+     * The time allowed after the deadline for the shutdown threads to report back.
+     */
+    private static final long GRACE_MILLIS = 1000;
+
+    /**
+     * @return how each adapter stopped; an adapter whose shutdown threw or did not finish counts as
+     * {@link AdapterInstance.ShutdownResult#FAILED}.
+     */
+    public static Map<AdapterInstance, AdapterInstance.ShutdownResult> shutdownAll(Collection<AdapterInstance> instances, long deadline) {
+        Map<AdapterInstance, AdapterInstance.ShutdownResult> results = new LinkedHashMap<>();
+        if (instances.isEmpty()) return results;
+        ExecutorService executor = Executors.newFixedThreadPool(instances.size(), r -> {
+            Thread thread = new Thread(r, "adapter-shutdown");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            Map<AdapterInstance, CompletableFuture<AdapterInstance.ShutdownResult>> futures = new LinkedHashMap<>();
+            for (AdapterInstance instance : instances) {
+                futures.put(instance, instance.shutdownAsync(deadline, executor));
+            }
+            for (Map.Entry<AdapterInstance, CompletableFuture<AdapterInstance.ShutdownResult>> entry : futures.entrySet()) {
+                AdapterInstance.ShutdownResult result;
+                try {
+                    result = entry.getValue().get(Math.max(0, deadline + GRACE_MILLIS - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                } catch (ExecutionException | TimeoutException e) {
+                    result = AdapterInstance.ShutdownResult.FAILED;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    result = AdapterInstance.ShutdownResult.FAILED;
+                }
+                results.put(entry.getKey(), result);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return results;
+    }
+
+    /**
+     * Warn about adapters that had to be forced to stop, and fail if any did not stop at all.
+     */
+    public static void report(Map<AdapterInstance, AdapterInstance.ShutdownResult> results) {
+        List<Integer> forced = new ArrayList<>();
+        List<Integer> failed = new ArrayList<>();
+        results.forEach((instance, result) -> {
+            if (result == AdapterInstance.ShutdownResult.FORCED) forced.add(instance.getPosition());
+            if (result == AdapterInstance.ShutdownResult.FAILED) failed.add(instance.getPosition());
+        });
+        if (!forced.isEmpty()) {
+            log.warn("Adapters at positions {} did not stop cleanly and were forced", forced);
+        }
+        if (!failed.isEmpty()) {
+            throw new RuntimeException("Adapters at positions " + failed + " did not stop");
+        }
+    }
+}
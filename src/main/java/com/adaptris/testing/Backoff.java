@@ -0,0 +1,50 @@
+package com.adaptris.testing;
+
+/**
+ * Exponential backoff between retries, starting at a few milliseconds and capped at a maximum delay.
+ */
+public class Backoff {
+    public static final long DEFAULT_INITIAL_DELAY = 5;
+    public static final double DEFAULT_MULTIPLIER = 2.0;
+
+    private final long initialDelay;
+    private final long maxDelay;
+    private final double multiplier;
+    private long nextDelay;
+
+    public Backoff(long maxDelay) {
+        this(DEFAULT_INITIAL_DELAY, maxDelay, DEFAULT_MULTIPLIER);
+    }
+
+    public Backoff(long initialDelay, long maxDelay, double multiplier) {
+        this.initialDelay = Math.max(1, Math.min(initialDelay, maxDelay));
+        this.maxDelay = Math.max(1, maxDelay);
+        this.multiplier = Math.max(1.0, multiplier);
+        this.nextDelay = this.initialDelay;
+    }
+
+    /**
+     * @return the delay to use for this attempt; subsequent calls return increasing delays up to the maximum.
+     */
+    public long nextDelay() {
+        long delay = nextDelay;
+        nextDelay = Math.min(maxDelay, (long) Math.ceil(nextDelay * multiplier));
+        return delay;
+    }
+
+    public void reset() {
+        nextDelay = initialDelay;
+    }
+
+    /**
+     * Sleep for the next delay, but never past the given deadline.
+     *
+     * @param deadline the absolute time (as per {@link System#currentTimeMillis()}) not to sleep beyond.
+     */
+    public void sleep(long deadline) throws InterruptedException {
+        long sleepTime = Math.min(nextDelay(), deadline - System.currentTimeMillis());
+        if (sleepTime > 0) {
+            Thread.sleep(sleepTime);
+        }
+    }
+}
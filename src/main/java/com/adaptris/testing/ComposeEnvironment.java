@@ -0,0 +1,35 @@
+package com.adaptris.testing;
+
+import org.testcontainers.containers.ComposeContainer;
+
+import java.net.InetSocketAddress;
+
+/**
+ * A {@link TestEnvironment} backed by a Testcontainers docker compose file.
+ */
+public class ComposeEnvironment implements TestEnvironment {
+    private final ComposeContainer container;
+
+    public ComposeEnvironment(ComposeContainer container) {
+        this.container = container;
+    }
+
+    @Override
+    public void start() {
+        container.start();
+    }
+
+    @Override
+    public InetSocketAddress getServiceAddress(String serviceName, int port) {
+        return new InetSocketAddress(container.getServiceHost(serviceName, port), container.getServicePort(serviceName, port));
+    }
+
+    public ComposeContainer getContainer() {
+        return container;
+    }
+
+    @Override
+    public void close() {
+        container.stop();
+    }
+}
@@ -0,0 +1,168 @@
+package com.adaptris.testing;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+/**
+ * A private working copy of a configuration directory, so that forks and test classes running in parallel do not
+ * overwrite each others bootstrap, variables and license files.
+ * <p>
+ * The sandbox is created under {@code ./sandbox/<fork>/<name>}, where fork is the Gradle test worker id. Every file
+ * in the source directory is symlinked into the sandbox (or copied if symlinks are not supported), and is only
+ * copied for real when it is first written through {@link #writable(String)}. {@link #rewritePaths(Properties)}
+ * points relative paths in bootstrap properties at the sandbox, so the adapter reads the sandboxed files no
+ * matter what its working directory is.
+ * </p>
+ */
+public class ConfigSandbox {
+    public static final String SANDBOX_ENABLED_PROPERTY = "interlok.testing.sandbox";
+    public static final String SANDBOX_ROOT_PROPERTY = "interlok.testing.sandbox.root";
+    public static final String GRADLE_WORKER_PROPERTY = "org.gradle.test.worker";
+
+    private final Path sourceDir;
+    private final Path sandboxDir;
+
+    protected ConfigSandbox(Path sourceDir, Path sandboxDir) {
+        this.sourceDir = sourceDir.toAbsolutePath().normalize();
+        this.sandboxDir = sandboxDir.toAbsolutePath().normalize();
+    }
+
+    /**
+     * @return true if sandboxes have been enabled for this JVM, e.g. by the functionalTest task when running with
+     * more than one fork.
+     */
+    public static boolean isEnabled() {
+        return Boolean.getBoolean(SANDBOX_ENABLED_PROPERTY);
+    }
+
+    public static String getForkId() {
+        return System.getProperty(GRADLE_WORKER_PROPERTY, "0");
+    }
+
+    /**
+     * Create (or refresh) a sandbox of the given source directory.
+     *
+     * @param sourceDir the configuration directory to sandbox.
+     * @param name the name of this sandbox, unique within the fork, e.g. the test class name.
+     */
+    public static ConfigSandbox create(File sourceDir, String name) {
+        Path root = Paths.get(System.getProperty(SANDBOX_ROOT_PROPERTY, "sandbox"));
+        ConfigSandbox sandbox = new ConfigSandbox(sourceDir.toPath(), root.resolve("fork-" + getForkId()).resolve(name));
+        try {
+            sandbox.populate();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return sandbox;
+    }
+
+    protected void populate() throws IOException {
+        if (Files.exists(sandboxDir)) {
+            try (Stream<Path> paths = Files.walk(sandboxDir)) {
+                paths.sorted((a, b) -> b.compareTo(a)).map(Path::toFile).forEach(File::delete);
+            }
+        }
+        Files.createDirectories(sandboxDir);
+        try (Stream<Path> children = Files.list(sourceDir)) {
+            for (Path source : (Iterable<Path>) children::iterator) {
+                Path target = sandboxDir.resolve(source.getFileName());
+                try {
+                    Files.createSymbolicLink(target, source);
+                } catch (UnsupportedOperationException | IOException e) {
+                    copy(source, target);
+                }
+            }
+        }
+    }
+
+    public Path getSandboxDir() {
+        return sandboxDir;
+    }
+
+    public Path getSourceDir() {
+        return sourceDir;
+    }
+
+    /**
+     * @return the sandboxed file, which may still be a link to the original.
+     */
+    public File file(String relativePath) {
+        return sandboxDir.resolve(relativePath).toFile();
+    }
+
+    /**
+     * @return the sandboxed file, copied from the original first if it is still a link, so that it can be written
+     * without touching the original.
+     */
+    public File writable(String relativePath) {
+        Path target = sandboxDir.resolve(relativePath).normalize();
+        try {
+            Path current = sandboxDir;
+            for (Path part : sandboxDir.relativize(target)) {
+                current = current.resolve(part);
+                if (Files.isSymbolicLink(current)) {
+                    Path source = Files.readSymbolicLink(current);
+                    Files.delete(current);
+                    copy(source, current);
+                }
+            }
+            Files.createDirectories(target.getParent());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return target.toFile();
+    }
+
+    /**
+     * Rewrite relative file paths and URLs in the properties so they point at the sandbox (for files in the source
+     * directory) or at the absolute location of the original (for anything else).
+     */
+    public Properties rewritePaths(Properties properties) {
+        for (String key : properties.stringPropertyNames()) {
+            properties.setProperty(key, rewritePath(properties.getProperty(key)));
+        }
+        return properties;
+    }
+
+    protected String rewritePath(String value) {
+        String prefix = "";
+        String path = value;
+        if (value.startsWith("file://localhost/")) {
+            prefix = "file:";
+            path = value.substring("file://localhost/".length());
+        } else if (value.startsWith("file:") && !value.startsWith("file:/")) {
+            prefix = "file:";
+            path = value.substring("file:".length());
+        }
+        Path cwd = Paths.get("").toAbsolutePath();
+        String sourceRelative = cwd.relativize(sourceDir).toString().replace(File.separatorChar, '/');
+        if (!(path.startsWith("./") || path.startsWith("../") || (!sourceRelative.isEmpty() && path.startsWith(sourceRelative + "/")))) {
+            return value;
+        }
+        Path resolved = cwd.resolve(path).normalize();
+        if (resolved.startsWith(sourceDir)) {
+            resolved = sandboxDir.resolve(sourceDir.relativize(resolved));
+        }
+        return prefix.isEmpty() ? resolved.toString() : resolved.toUri().toString();
+    }
+
+    private static void copy(Path source, Path target) throws IOException {
+        if (Files.isDirectory(source)) {
+            try (Stream<Path> paths = Files.walk(source)) {
+                for (Path path : (Iterable<Path>) paths::iterator) {
+                    Path copy = target.resolve(source.relativize(path).toString());
+                    if (Files.isDirectory(path)) {
+                        Files.createDirectories(copy);
+                    } else {
+                        Files.copy(path, copy, StandardCopyOption.REPLACE_EXISTING);
+                    }
+                }
+            }
+        } else {
+            Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
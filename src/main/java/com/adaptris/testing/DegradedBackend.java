@@ -0,0 +1,337 @@
+package com.adaptris.testing;
+
+import org.apache.hc.core5.http.ClassicHttpRequest;
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.io.HttpRequestHandler;
+import org.apache.hc.core5.http.io.entity.AbstractHttpEntity;
+import org.apache.hc.core5.http.io.entity.ByteArrayEntity;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.apache.hc.core5.http.protocol.HttpContext;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * An in-process downstream HTTP service that can be made slow or unreliable, to see how an adapter behaves when the
+ * services it calls degrade.
+ * <p>
+ * Each route has its own latency distribution, bandwidth limit, error rate and connection reset rate. Every request
+ * is captured (the most recent {@link #withCaptureLimit(int) capture limit} of them are kept) so that tests can
+ * check what the adapter sent. A reset closes the connection without a response; the client sees the connection
+ * drop, as it would if the service crashed mid-request.
+ * </p>
+ * <pre>{@code
+ * DegradedBackend orders = backend("orders.url");
+ * orders.route("/orders/*").withLogNormalLatency(Duration.ofMillis(50), Duration.ofMillis(800)).withErrorRate(0.05, 503);
+ * }</pre>
+ */
+public class DegradedBackend extends HttpStandIn {
+    private final Map<String, Route> routes = new LinkedHashMap<>();
+    private final ArrayDeque<CapturedRequest> captured = new ArrayDeque<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+    private int captureLimit = 1000;
+    private long requestCount = 0;
+
+    /**
+     * @return the route for the URI pattern (e.g. {@code /api/*}, or {@code *} for every request), created if needed.
+     * Routes must be set up before the backend is started.
+     */
+    public synchronized Route route(String uriPattern) {
+        return routes.computeIfAbsent(uriPattern, pattern -> {
+            Route route = new Route(pattern);
+            withHandler(pattern, route);
+            return route;
+        });
+    }
+
+    public DegradedBackend withCaptureLimit(int captureLimit) {
+        this.captureLimit = captureLimit;
+        return this;
+    }
+
+    /**
+     * @return the most recent requests, oldest first.
+     */
+    public synchronized List<CapturedRequest> getRequests() {
+        return new ArrayList<>(captured);
+    }
+
+    public synchronized long getRequestCount() {
+        return requestCount;
+    }
+
+    /**
+     * @return the highest number of requests being handled at once, i.e. how many adapter threads were blocked on
+     * this backend.
+     */
+    public int getPeakInFlight() {
+        return peakInFlight.get();
+    }
+
+    /**
+     * Wait until at least {@code count} requests have been received in total.
+     *
+     * @throws TimeoutException if fewer have been received when the timeout expires.
+     */
+    public synchronized long awaitRequests(long count, Duration timeout) throws TimeoutException, InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout.toMillis();
+        long remaining;
+        while (requestCount < count) {
+            if ((remaining = deadline - System.currentTimeMillis()) <= 0) {
+                throw new TimeoutException(requestCount + " of " + count + " requests within " + timeout.toMillis() + "ms");
+            }
+            wait(remaining);
+        }
+        return requestCount;
+    }
+
+    private synchronized void capture(CapturedRequest request) {
+        if (captured.size() >= captureLimit) captured.removeFirst();
+        captured.addLast(request);
+        requestCount++;
+        notifyAll();
+    }
+
+    /**
+     * How one URI pattern behaves. By default it answers 200 immediately, echoing the request body.
+     */
+    public class Route implements HttpRequestHandler {
+        private final String pattern;
+        private final AtomicLong count = new AtomicLong();
+        private volatile LongSupplier latencyMillis = () -> 0;
+        private volatile long bytesPerSecond = 0;
+        private volatile double errorRate = 0;
+        private volatile int errorStatus = 503;
+        private volatile double resetRate = 0;
+        private volatile int status = 200;
+        private volatile byte[] body;
+        private volatile ContentType contentType = ContentType.TEXT_PLAIN;
+
+        private Route(String pattern) {
+            this.pattern = pattern;
+        }
+
+        public Route withFixedLatency(Duration latency) {
+            long millis = latency.toMillis();
+            return withLatency(() -> millis);
+        }
+
+        public Route withUniformLatency(Duration min, Duration max) {
+            long from = min.toMillis();
+            long to = Math.max(from, max.toMillis());
+            return withLatency(() -> ThreadLocalRandom.current().nextLong(from, to + 1));
+        }
+
+        /**
+         * A long tailed latency distribution, as most real services have.
+         */
+        public Route withLogNormalLatency(Duration median, Duration p99) {
+            double mu = Math.log(Math.max(1, median.toMillis()));
+            double sigma = Math.max(0, (Math.log(Math.max(1, p99.toMillis())) - mu) / 2.326);
+            return withLatency(() -> Math.round(Math.exp(mu + sigma * ThreadLocalRandom.current().nextGaussian())));
+        }
+
+        /**
+         * @param latencyMillis supplies the delay, in ms, before each response.
+         */
+        public Route withLatency(LongSupplier latencyMillis) {
+            this.latencyMillis = latencyMillis;
+            return this;
+        }
+
+        /**
+         * Send response bodies no faster than this.
+         */
+        public Route withBandwidth(long bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+            return this;
+        }
+
+        /**
+         * @param rate the fraction of requests (0 to 1) answered with the error status.
+         */
+        public Route withErrorRate(double rate, int errorStatus) {
+            this.errorRate = rate;
+            this.errorStatus = errorStatus;
+            return this;
+        }
+
+        /**
+         * @param rate the fraction of requests (0 to 1) whose connection is dropped without a response.
+         */
+        public Route withResetRate(double rate) {
+            this.resetRate = rate;
+            return this;
+        }
+
+        /**
+         * Answer with this status and body instead of echoing the request.
+         */
+        public Route withResponse(int status, String body, ContentType contentType) {
+            this.status = status;
+            this.body = body.getBytes(StandardCharsets.UTF_8);
+            this.contentType = contentType;
+            return this;
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        @Override
+        public void handle(ClassicHttpRequest request, ClassicHttpResponse response, HttpContext context) throws IOException {
+            byte[] requestBody = request.getEntity() == null ? new byte[0] : EntityUtils.toByteArray(request.getEntity());
+            Map<String, String> headers = new LinkedHashMap<>();
+            for (Header header : request.getHeaders()) {
+                headers.merge(header.getName(), header.getValue(), (first, next) -> first + ", " + next);
+            }
+            count.incrementAndGet();
+            capture(new CapturedRequest(pattern, request.getMethod(), request.getPath(), headers, requestBody, System.currentTimeMillis()));
+            peakInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                long latency = latencyMillis.getAsLong();
+                if (latency > 0) Thread.sleep(latency);
+                double roll = ThreadLocalRandom.current().nextDouble();
+                if (roll < resetRate) {
+                    throw new SocketException("Connection reset by " + pattern + " stand-in");
+                }
+                if (roll < resetRate + errorRate) {
+                    response.setCode(errorStatus);
+                    response.setEntity(new ByteArrayEntity("Injected error".getBytes(StandardCharsets.UTF_8), ContentType.TEXT_PLAIN));
+                    return;
+                }
+                byte[] out = body != null ? body : requestBody;
+                response.setCode(status);
+                response.setEntity(bytesPerSecond > 0 ? new ThrottledEntity(out, contentType, bytesPerSecond) : new ByteArrayEntity(out, contentType));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while delaying the response");
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * A request received by the backend.
+     */
+    public static class CapturedRequest {
+        private final String route;
+        private final String method;
+        private final String path;
+        private final Map<String, String> headers;
+        private final byte[] body;
+        private final long timestamp;
+
+        CapturedRequest(String route, String method, String path, Map<String, String> headers, byte[] body, long timestamp) {
+            this.route = route;
+            this.method = method;
+            this.path = path;
+            this.headers = headers;
+            this.body = body;
+            this.timestamp = timestamp;
+        }
+
+        public String getRoute() {
+            return route;
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public Map<String, String> getHeaders() {
+            return headers;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+
+        public String getBodyAsString() {
+            return new String(body, StandardCharsets.UTF_8);
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+    }
+
+    /**
+     * A response body written at a limited rate.
+     */
+    private static class ThrottledEntity extends AbstractHttpEntity {
+        private final byte[] content;
+        private final long bytesPerSecond;
+
+        private ThrottledEntity(byte[] content, ContentType contentType, long bytesPerSecond) {
+            super(contentType, null);
+            this.content = content;
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        @Override
+        public InputStream getContent() {
+            return new ByteArrayInputStream(content);
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            int chunk = (int) Math.max(1, Math.min(content.length, bytesPerSecond / 20));
+            long start = System.nanoTime();
+            for (int offset = 0; offset < content.length; offset += chunk) {
+                int length = Math.min(chunk, content.length - offset);
+                out.write(content, offset, length);
+                out.flush();
+                long due = start + (offset + length) * 1_000_000_000L / bytesPerSecond;
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    try {
+                        Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while throttling the response");
+                    }
+                }
+            }
+        }
+
+        @Override
+        public long getContentLength() {
+            return content.length;
+        }
+
+        @Override
+        public boolean isStreaming() {
+            return false;
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -10,31 +10,54 @@ import java.net.InetSocketAddress;
 /**
  * This class uses the TestContainers library to setup a JUnit test case according to a docker compose
  * file.
+ * <p>
+ * With {@code -Dinterlok.testing.environment=inProcess} the compose file is not started; the services are provided
+ * by the stand-ins registered in {@link #setupStandIns(InProcessEnvironment)} instead, and
+ * {@link #getHostAddressForService(String, int)} resolves to them.
+ * </p>
  */
 @TestInstance(TestInstance.Lifecycle.PER_CLASS)
 public abstract class DockerComposeFunctionalTest extends AbstractAdapterFunctionalTest {
 
 
-    private ComposeContainer environment;
+    private TestEnvironment environment;
 
     @BeforeAll
     public void setup() throws Exception {
-        this.environment = setupContainers();
+        this.environment = createEnvironment();
         this.environment.start();
     }
 
     @AfterAll
     public void teardown() throws Exception {
         if (this.environment != null) {
-            this.environment.stop();
+            this.environment.close();
         }
     }
 
+    protected TestEnvironment createEnvironment() throws Exception {
+        if (TestEnvironment.IN_PROCESS.equals(TestEnvironment.getMode())) {
+            InProcessEnvironment inProcess = new InProcessEnvironment();
+            setupStandIns(inProcess);
+            return inProcess;
+        }
+        return new ComposeEnvironment(setupContainers());
+    }
+
+    protected TestEnvironment getEnvironment() {
+        return environment;
+    }
 
     protected InetSocketAddress getHostAddressForService(String serviceName, int port) {
-        return new InetSocketAddress(environment.getServiceHost(serviceName, port), environment.getServicePort(serviceName, port));
+        return environment.getServiceAddress(serviceName, port);
     }
 
     protected abstract ComposeContainer setupContainers() throws Exception;
 
+    /**
+     * Register the stand-ins for the compose services when running in process; none by default.
+     */
+    protected void setupStandIns(InProcessEnvironment environment) throws Exception {
+    }
+
 }
@@ -0,0 +1,96 @@
+package com.adaptris.testing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Spreads a {@link LoadDriver}'s requests across several adapters' web servers, as a load balancer in front of a
+ * cluster would.
+ */
+public class EndpointBalancer {
+    public enum Strategy {
+        /**
+         * Each endpoint in turn.
+         */
+        ROUND_ROBIN,
+        /**
+         * The endpoint with the fewest requests in flight, so a slow adapter gets less of the load.
+         */
+        LEAST_OUTSTANDING
+    }
+
+    private final List<Endpoint> endpoints = new ArrayList<>();
+    private final Strategy strategy;
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * @param baseUrls the base URL of each endpoint, e.g. {@link AdapterInstance#getBaseAdapterUrl()}.
+     */
+    public EndpointBalancer(List<String> baseUrls, Strategy strategy) {
+        if (baseUrls.isEmpty()) throw new IllegalArgumentException("No endpoints to balance");
+        for (String baseUrl : baseUrls) {
+            endpoints.add(new Endpoint(baseUrl));
+        }
+        this.strategy = strategy;
+    }
+
+    public List<Endpoint> getEndpoints() {
+        return Collections.unmodifiableList(endpoints);
+    }
+
+    /**
+     * Choose the endpoint for a request; the caller must {@link Endpoint#release()} it when the request completes.
+     */
+    public Endpoint acquire() {
+        Endpoint chosen;
+        if (strategy == Strategy.ROUND_ROBIN || endpoints.size() == 1) {
+            chosen = endpoints.get(Math.floorMod(next.getAndIncrement(), endpoints.size()));
+        } else {
+            // start from a rotating offset so that ties do not all go to the first endpoint.
+            int offset = next.getAndIncrement();
+            chosen = null;
+            for (int i = 0; i < endpoints.size(); i++) {
+                Endpoint candidate = endpoints.get(Math.floorMod(offset + i, endpoints.size()));
+                if (chosen == null || candidate.outstanding.get() < chosen.outstanding.get()) chosen = candidate;
+            }
+        }
+        chosen.outstanding.incrementAndGet();
+        chosen.sent.incrementAndGet();
+        return chosen;
+    }
+
+    /**
+     * One adapter's web server.
+     */
+    public static class Endpoint {
+        private final String baseUrl;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicLong sent = new AtomicLong();
+
+        Endpoint(String baseUrl) {
+            this.baseUrl = baseUrl;
+        }
+
+        public String getBaseUrl() {
+            return baseUrl;
+        }
+
+        public int getOutstanding() {
+            return outstanding.get();
+        }
+
+        /**
+         * @return the number of requests sent to this endpoint.
+         */
+        public long getSent() {
+            return sent.get();
+        }
+
+        public void release() {
+            outstanding.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.adaptris.testing;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * The outcome of a {@link FailoverScenario}: how long each takeover took, and the background load result if there
+ * was one.
+ */
+public class FailoverResult {
+    private final LatencyHistogram startedHistogram;
+    private final LatencyHistogram servingHistogram;
+    private final List<Takeover> takeovers;
+    private final LoadResult loadResult;
+
+    public FailoverResult(LatencyHistogram startedHistogram, LatencyHistogram servingHistogram, List<Takeover> takeovers, LoadResult loadResult) {
+        this.startedHistogram = startedHistogram;
+        this.servingHistogram = servingHistogram;
+        this.takeovers = takeovers;
+        this.loadResult = loadResult;
+    }
+
+    /**
+     * @return the time in milliseconds from stopping the primary to a standby reaching StartedState.
+     */
+    public LatencyHistogram getStartedHistogram() {
+        return startedHistogram;
+    }
+
+    /**
+     * @return the time in milliseconds from stopping the primary to the new primary answering the HTTP probe.
+     */
+    public LatencyHistogram getServingHistogram() {
+        return servingHistogram;
+    }
+
+    public Duration getServingLatency(double percentile) {
+        return Duration.ofMillis(servingHistogram.getValueAtPercentile(percentile));
+    }
+
+    public List<Takeover> getTakeovers() {
+        return takeovers;
+    }
+
+    /**
+     * @return the background load result, or null if there was no background load.
+     */
+    public LoadResult getLoadResult() {
+        return loadResult;
+    }
+
+    /**
+     * @return the background requests that failed or got an error response; 0 if there was no background load.
+     */
+    public long getDroppedRequests() {
+        return loadResult == null ? 0 : loadResult.getTotalErrors();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("takeovers=%d started p50=%dms max=%dms serving p50=%dms p99=%dms max=%dms dropped=%d",
+                takeovers.size(), startedHistogram.getValueAtPercentile(50.0), startedHistogram.getMax(),
+                servingHistogram.getValueAtPercentile(50.0), servingHistogram.getValueAtPercentile(99.0),
+                servingHistogram.getMax(), getDroppedRequests());
+    }
+
+    /**
+     * One takeover: which instance was stopped, which took over, and how long it took.
+     */
+    public static class Takeover {
+        private final int iteration;
+        private final int stoppedPosition;
+        private final int promotedPosition;
+        private final long startedMillis;
+        private final long servingMillis;
+
+        public Takeover(int iteration, int stoppedPosition, int promotedPosition, long startedMillis, long servingMillis) {
+            this.iteration = iteration;
+            this.stoppedPosition = stoppedPosition;
+            this.promotedPosition = promotedPosition;
+            this.startedMillis = startedMillis;
+            this.servingMillis = servingMillis;
+        }
+
+        public int getIteration() {
+            return iteration;
+        }
+
+        public int getStoppedPosition() {
+            return stoppedPosition;
+        }
+
+        public int getPromotedPosition() {
+            return promotedPosition;
+        }
+
+        public long getStartedMillis() {
+            return startedMillis;
+        }
+
+        public long getServingMillis() {
+            return servingMillis;
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package com.adaptris.testing;
+
+import com.adaptris.core.StartedState;
+import org.apache.hc.client5.http.classic.methods.HttpGet;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.core5.util.Timeout;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntPredicate;
+
+/**
+ * Measures how quickly a standby adapter takes over when the primary goes away.
+ * <p>
+ * Every instance is launched with {@link AdapterInstance#launchProcess()} and {@code --failover}; the first to reach
+ * {@link StartedState} is the primary. Each iteration stops the primary (killing it, or stopping it gracefully) and
+ * times how long it takes for a standby to reach StartedState and then to answer an HTTP probe. The stopped instance
+ * is relaunched as a standby before the next iteration. Background load can be kept running throughout, to count
+ * the requests dropped during takeovers; its requests can follow the primary with {@link #getPrimaryUrl()}.
+ * </p>
+ * <p>
+ * The takeovers are written to {@code <reports>/failover/<name>.csv}.
+ * </p>
+ */
+public class FailoverScenario {
+    public enum StopMode {
+        /**
+         * Kill the primary's JVM ({@code SIGKILL}), as in a crash.
+         */
+        KILL,
+        /**
+         * Ask the primary's JVM to exit ({@code SIGTERM}), which runs Interlok's shutdown hooks.
+         */
+        GRACEFUL
+    }
+
+    private final List<AdapterInstance> instances;
+    private String name = "failover";
+    private int iterations = 10;
+    private StopMode stopMode = StopMode.KILL;
+    private String probePath = "/";
+    private IntPredicate probeStatus = status -> status < 500;
+    private long pollIntervalMillis = 50;
+    private long takeoverTimeoutMillis = 60000;
+    private long settleMillis = 2000;
+    private LoadDriver backgroundLoad;
+
+    private volatile AdapterInstance primary;
+
+    /**
+     * @param instances the instances to fail over between; their configuration must already have been written, and
+     *                  their bootstrap configuration must make them members of the same failover group.
+     */
+    public FailoverScenario(List<AdapterInstance> instances) {
+        if (instances.size() < 2) throw new IllegalArgumentException("Failover needs at least two instances");
+        this.instances = instances;
+    }
+
+    public FailoverScenario withName(String name) {
+        this.name = name;
+        return this;
+    }
+
+    public FailoverScenario withIterations(int iterations) {
+        this.iterations = iterations;
+        return this;
+    }
+
+    public FailoverScenario withStopMode(StopMode stopMode) {
+        this.stopMode = stopMode;
+        return this;
+    }
+
+    /**
+     * @param path the path to request from the new primary's web server to decide it is serving traffic.
+     * @param status the response codes that count as serving.
+     */
+    public FailoverScenario withHttpProbe(String path, IntPredicate status) {
+        this.probePath = path;
+        this.probeStatus = status;
+        return this;
+    }
+
+    public FailoverScenario withPollInterval(long millis) {
+        this.pollIntervalMillis = millis;
+        return this;
+    }
+
+    public FailoverScenario withTakeoverTimeout(long millis) {
+        this.takeoverTimeoutMillis = millis;
+        return this;
+    }
+
+    /**
+     * @param millis the time to wait after each takeover, so that the relaunched instance has joined as a standby.
+     */
+    public FailoverScenario withSettleTime(long millis) {
+        this.settleMillis = millis;
+        return this;
+    }
+
+    /**
+     * Run this load for the whole scenario; its duration should be longer than the scenario, it is stopped when the
+     * last takeover has been measured.
+     */
+    public FailoverScenario withBackgroundLoad(LoadDriver backgroundLoad) {
+        this.backgroundLoad = backgroundLoad;
+        return this;
+    }
+
+    /**
+     * @return the current primary, or null before the scenario has started.
+     */
+    public AdapterInstance getPrimary() {
+        return primary;
+    }
+
+    /**
+     * @return the base URL of the current primary's web server.
+     */
+    public String getPrimaryUrl() {
+        AdapterInstance current = primary;
+        return (current != null ? current : instances.get(0)).getBaseAdapterUrl();
+    }
+
+    public FailoverResult run() throws Exception {
+        for (AdapterInstance instance : instances) {
+            launch(instance);
+        }
+        primary = awaitStarted(instances, System.currentTimeMillis() + takeoverTimeoutMillis);
+        CompletableFuture<LoadResult> load = backgroundLoad == null ? null : CompletableFuture.supplyAsync(() -> {
+            try {
+                return backgroundLoad.run();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        LatencyHistogram started = new LatencyHistogram();
+        LatencyHistogram serving = new LatencyHistogram();
+        List<FailoverResult.Takeover> takeovers = new ArrayList<>();
+        try (CloseableHttpClient probeClient = HttpClients.custom().disableAutomaticRetries()
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectTimeout(Timeout.ofMilliseconds(Math.max(100, pollIntervalMillis * 4)))
+                        .setResponseTimeout(Timeout.ofMilliseconds(Math.max(1000, pollIntervalMillis * 20))).build())
+                .build()) {
+            for (int i = 0; i < iterations; i++) {
+                Thread.sleep(settleMillis);
+                AdapterInstance stopped = primary;
+                List<AdapterInstance> standbys = new ArrayList<>(instances);
+                standbys.remove(stopped);
+                long begin = System.nanoTime();
+                long deadline = System.currentTimeMillis() + takeoverTimeoutMillis;
+                stop(stopped);
+                AdapterInstance promoted = awaitStarted(standbys, deadline);
+                long startedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+                primary = promoted;
+                awaitServing(probeClient, promoted, deadline);
+                long servingMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+                started.recordValue(startedMillis);
+                serving.recordValue(servingMillis);
+                takeovers.add(new FailoverResult.Takeover(i, stopped.getPosition(), promoted.getPosition(), startedMillis, servingMillis));
+                launch(stopped);
+            }
+        } finally {
+            if (backgroundLoad != null) backgroundLoad.stop();
+        }
+        FailoverResult result = new FailoverResult(started, serving, takeovers, load == null ? null : join(load));
+        write(result);
+        return result;
+    }
+
+    protected void launch(AdapterInstance instance) throws Exception {
+        instance.disconnectJMX();
+        instance.withFailover();
+        instance.launchProcess();
+    }
+
+    protected void stop(AdapterInstance instance) throws InterruptedException {
+        instance.disconnectJMX();
+        Process process = instance.getProcess();
+        if (process == null) return;
+        if (stopMode == StopMode.KILL) {
+            process.destroyForcibly();
+        } else {
+            process.destroy();
+        }
+        process.waitFor(takeoverTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Poll each candidate's JMX server in turn until one of them reports StartedState.
+     */
+    protected AdapterInstance awaitStarted(List<AdapterInstance> candidates, long deadline) throws InterruptedException {
+        Backoff backoff = new Backoff(1, pollIntervalMillis, 2.0);
+        while (true) {
+            for (AdapterInstance candidate : candidates) {
+                try {
+                    if (!candidate.isJmxConnected()) candidate.connectJMX();
+                    if (candidate.getComponentState() instanceof StartedState) return candidate;
+                } catch (Exception e) {
+                    // not promoted yet, or its JMX server is not up.
+                    candidate.disconnectJMX();
+                }
+            }
+            if (System.currentTimeMillis() >= deadline) {
+                throw new RuntimeException("No adapter reached StartedState within " + takeoverTimeoutMillis + "ms");
+            }
+            backoff.sleep(deadline);
+        }
+    }
+
+    protected void awaitServing(CloseableHttpClient probeClient, AdapterInstance instance, long deadline) throws InterruptedException {
+        Backoff backoff = new Backoff(1, pollIntervalMillis, 2.0);
+        while (true) {
+            try {
+                Integer status = probeClient.execute(new HttpGet(instance.getBaseAdapterUrl() + probePath), response -> response.getCode());
+                if (status != null && probeStatus.test(status)) return;
+            } catch (IOException e) {
+                // the web server is not up yet.
+            }
+            if (System.currentTimeMillis() >= deadline) {
+                throw new RuntimeException("Adapter " + instance.getPosition() + " did not serve " + probePath + " within " + takeoverTimeoutMillis + "ms");
+            }
+            backoff.sleep(deadline);
+        }
+    }
+
+    private static LoadResult join(CompletableFuture<LoadResult> load) throws Exception {
+        try {
+            return load.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    private void write(FailoverResult result) throws IOException {
+        File report = TestReports.reportFile("failover", name + ".csv");
+        try (Writer writer = new FileWriter(report, false)) {
+            writer.write("iteration,stopMode,stopped,promoted,startedMs,servingMs" + System.lineSeparator());
+            for (FailoverResult.Takeover takeover : result.getTakeovers()) {
+                writer.write(String.join(",", String.valueOf(takeover.getIteration()), stopMode.name(),
+                        String.valueOf(takeover.getStoppedPosition()), String.valueOf(takeover.getPromotedPosition()),
+                        String.valueOf(takeover.getStartedMillis()), String.valueOf(takeover.getServingMillis()))
+                        + System.lineSeparator());
+            }
+        }
+    }
+}
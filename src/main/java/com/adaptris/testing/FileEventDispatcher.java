@@ -0,0 +1,320 @@
+package com.adaptris.testing;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Waits for files to be created, modified or deleted, e.g. by fs-consumer and fs-producer workflows.
+ * <p>
+ * One dispatcher thread takes events from a single {@link WatchService} and routes them to the {@link FileWatch}es
+ * registered for the directory, each of which filters by file name (glob) and event kind. Directories are only
+ * registered with the watch service once. If the OS event queue overflows, the directory is rescanned and the
+ * differences from the last known listing are dispatched as events, so no files are missed.
+ * </p>
+ * <pre>{@code
+ * FileWatch watch = fileEvents.watch(outputDir, "*.xml", ENTRY_CREATE);
+ * // ... drop 100 files into the input directory ...
+ * List<Path> produced = watch.await(100, Duration.ofSeconds(30));
+ * }</pre>
+ */
+public class FileEventDispatcher implements AutoCloseable {
+    private final WatchService watchService;
+    private final Map<Path, WatchKey> keys = new HashMap<>();
+    private final Map<Path, Map<Path, FileTime>> listings = new HashMap<>();
+    private final List<FileWatch> watches = new ArrayList<>();
+    private final Thread dispatcher;
+    private volatile boolean running = true;
+
+    public FileEventDispatcher() throws IOException {
+        this(FileSystems.getDefault().newWatchService());
+    }
+
+    public FileEventDispatcher(WatchService watchService) {
+        this.watchService = watchService;
+        dispatcher = new Thread(this::dispatch, "file-event-dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    /**
+     * Watch a directory for events on files whose names match the glob, from now on.
+     *
+     * @param directory the directory to watch.
+     * @param glob the file name pattern, e.g. {@code *.xml}; {@code *} for every file.
+     * @param kinds the kinds of event; all of create, modify and delete if none are given.
+     */
+    public FileWatch watch(Path directory, String glob, WatchEvent.Kind<?>... kinds) throws IOException {
+        Path dir = directory.toAbsolutePath().normalize();
+        FileWatch watch = new FileWatch(dir, FileSystems.getDefault().getPathMatcher("glob:" + glob),
+                kinds.length == 0 ? Set.of(ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE) : Set.of(kinds));
+        synchronized (this) {
+            register(dir);
+            watches.add(watch);
+        }
+        return watch;
+    }
+
+    /**
+     * Wait for an event on a single file. For {@link StandardWatchEventKinds#ENTRY_CREATE} a file that already exists
+     * counts, and for {@link StandardWatchEventKinds#ENTRY_DELETE} a file that does not exist counts.
+     *
+     * @throws TimeoutException if there is no event within the timeout.
+     */
+    public Path awaitFileEvent(Path file, Duration timeout, WatchEvent.Kind<?>... kinds) throws IOException, TimeoutException, InterruptedException {
+        Path target = file.toAbsolutePath().normalize();
+        try (FileWatch watch = watch(target.getParent(), escape(target.getFileName().toString()), kinds)) {
+            Set<WatchEvent.Kind<?>> wanted = watch.kinds;
+            if (wanted.contains(ENTRY_CREATE) && Files.exists(target) || wanted.contains(ENTRY_DELETE) && !Files.exists(target)) {
+                return target;
+            }
+            return watch.await(1, timeout).get(0);
+        }
+    }
+
+    /**
+     * Wait for an event on a file in the directory whose name matches the glob. For
+     * {@link StandardWatchEventKinds#ENTRY_CREATE} a matching file that already exists counts.
+     *
+     * @return the first matching file.
+     * @throws TimeoutException if there is no event within the timeout.
+     */
+    public Path awaitFileEvent(Path directory, String glob, Duration timeout, WatchEvent.Kind<?>... kinds) throws IOException, TimeoutException, InterruptedException {
+        try (FileWatch watch = watch(directory, glob, kinds)) {
+            acceptExisting(watch);
+            return watch.await(1, timeout).get(0);
+        }
+    }
+
+    /**
+     * Wait until {@code count} files matching the glob have appeared in the directory, counting those already there.
+     *
+     * @return the matching files.
+     * @throws TimeoutException if there are fewer when the timeout expires.
+     */
+    public List<Path> awaitFiles(Path directory, String glob, int count, Duration timeout) throws IOException, TimeoutException, InterruptedException {
+        try (FileWatch watch = watch(directory, glob, ENTRY_CREATE)) {
+            acceptExisting(watch);
+            return watch.await(count, timeout);
+        }
+    }
+
+    private synchronized void acceptExisting(FileWatch watch) {
+        Map<Path, FileTime> listing = listings.get(watch.directory);
+        if (listing == null) return;
+        for (Path existing : listing.keySet()) {
+            watch.accept(existing, ENTRY_CREATE);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        dispatcher.interrupt();
+        watchService.close();
+        synchronized (this) {
+            for (FileWatch watch : watches) {
+                watch.cancel();
+            }
+            watches.clear();
+        }
+    }
+
+    private void register(Path dir) throws IOException {
+        if (keys.containsKey(dir)) return;
+        keys.put(dir, dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE));
+        listings.put(dir, scan(dir));
+    }
+
+    private synchronized void unregister(FileWatch watch) {
+        watches.remove(watch);
+        if (watches.stream().noneMatch(other -> other.directory.equals(watch.directory))) {
+            WatchKey key = keys.remove(watch.directory);
+            if (key != null) key.cancel();
+            listings.remove(watch.directory);
+        }
+    }
+
+    private void dispatch() {
+        while (running) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            Path dir = (Path) key.watchable();
+            synchronized (this) {
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == OVERFLOW) {
+                        rescan(dir);
+                    } else {
+                        onEvent(dir, dir.resolve((Path) event.context()), event.kind());
+                    }
+                }
+                if (!key.reset()) {
+                    keys.remove(dir, key);
+                }
+            }
+        }
+    }
+
+    private void onEvent(Path dir, Path file, WatchEvent.Kind<?> kind) {
+        Map<Path, FileTime> listing = listings.get(dir);
+        if (listing == null) return;
+        if (kind == ENTRY_DELETE) {
+            listing.remove(file);
+        } else {
+            listing.put(file, lastModified(file));
+        }
+        for (FileWatch watch : watches) {
+            if (watch.directory.equals(dir)) watch.accept(file, kind);
+        }
+    }
+
+    private void rescan(Path dir) {
+        Map<Path, FileTime> previous = listings.get(dir);
+        if (previous == null) return;
+        Map<Path, FileTime> current;
+        try {
+            current = scan(dir);
+        } catch (IOException e) {
+            return;
+        }
+        for (Map.Entry<Path, FileTime> entry : current.entrySet()) {
+            FileTime before = previous.get(entry.getKey());
+            if (before == null) {
+                onEvent(dir, entry.getKey(), ENTRY_CREATE);
+            } else if (!before.equals(entry.getValue())) {
+                onEvent(dir, entry.getKey(), ENTRY_MODIFY);
+            }
+        }
+        for (Path gone : new ArrayList<>(previous.keySet())) {
+            if (!current.containsKey(gone)) onEvent(dir, gone, ENTRY_DELETE);
+        }
+    }
+
+    private static Map<Path, FileTime> scan(Path dir) throws IOException {
+        Map<Path, FileTime> listing = new HashMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path file : stream) {
+                listing.put(file, lastModified(file));
+            }
+        }
+        return listing;
+    }
+
+    private static FileTime lastModified(Path file) {
+        try {
+            return Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).lastModifiedTime();
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    private static String escape(String fileName) {
+        return fileName.replaceAll("([\\\\*?\\[\\]{}])", "\\\\$1");
+    }
+
+    /**
+     * The events on matching files in one directory, collected from the time the watch was created.
+     */
+    public class FileWatch implements AutoCloseable {
+        private final Path directory;
+        private final PathMatcher matcher;
+        private final Set<WatchEvent.Kind<?>> kinds;
+        private final Map<Path, Long> matched = new LinkedHashMap<>();
+        private final List<Waiter> waiters = new ArrayList<>();
+
+        private FileWatch(Path directory, PathMatcher matcher, Set<WatchEvent.Kind<?>> kinds) {
+            this.directory = directory;
+            this.matcher = matcher;
+            this.kinds = kinds;
+        }
+
+        private synchronized void accept(Path file, WatchEvent.Kind<?> kind) {
+            if (!kinds.contains(kind) || !matcher.matches(file.getFileName()) || matched.putIfAbsent(file, System.nanoTime()) != null) return;
+            Iterator<Waiter> iterator = waiters.iterator();
+            while (iterator.hasNext()) {
+                Waiter waiter = iterator.next();
+                if (matched.size() >= waiter.count) {
+                    waiter.future.complete(new ArrayList<>(matched.keySet()));
+                    iterator.remove();
+                }
+            }
+        }
+
+        private synchronized void cancel() {
+            waiters.forEach(waiter -> waiter.future.cancel(false));
+            waiters.clear();
+        }
+
+        /**
+         * @return the distinct files with a matching event so far.
+         */
+        public synchronized List<Path> getFiles() {
+            return new ArrayList<>(matched.keySet());
+        }
+
+        public synchronized int getCount() {
+            return matched.size();
+        }
+
+        /**
+         * @return the {@link System#nanoTime()} at which the first matching event for each file was dispatched.
+         */
+        public synchronized Map<Path, Long> getEventTimes() {
+            return new LinkedHashMap<>(matched);
+        }
+
+        /**
+         * Wait until at least {@code count} distinct files have had a matching event.
+         *
+         * @return those files, in the order their first event was seen.
+         * @throws TimeoutException if there are fewer when the timeout expires.
+         */
+        public List<Path> await(int count, Duration timeout) throws TimeoutException, InterruptedException {
+            CompletableFuture<List<Path>> future = new CompletableFuture<>();
+            synchronized (this) {
+                if (matched.size() >= count) return new ArrayList<>(matched.keySet());
+                waiters.add(new Waiter(count, future));
+            }
+            try {
+                return future.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+            } catch (ExecutionException | CancellationException e) {
+                throw new IllegalStateException("File event dispatcher closed", e);
+            } catch (TimeoutException e) {
+                synchronized (this) {
+                    waiters.removeIf(waiter -> waiter.future == future);
+                    throw new TimeoutException(matched.size() + " of " + count + " files in " + directory + " within " + timeout.toMillis() + "ms");
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            cancel();
+            unregister(this);
+        }
+    }
+
+    private static class Waiter {
+        private final int count;
+        private final CompletableFuture<List<Path>> future;
+
+        private Waiter(int count, CompletableFuture<List<Path>> future) {
+            this.count = count;
+            this.future = future;
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package com.adaptris.testing;
+
+import org.apache.hc.core5.http.ContentType;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+
+/**
+ * Measures how fast an fs-consumer to fs-producer pipeline drains a directory.
+ * <p>
+ * Payload files are written to a staging directory next to the consume directory and then moved into it with an
+ * atomic rename (see {@link Payload#dropInto(Path, String, Path)}), so the poller never sees a partly written file.
+ * Output files in the produce directory are matched back to their inputs (by
+ * default by file name) using a {@link FileEventDispatcher}, and the backlog is sampled while the run is in progress.
+ * </p>
+ * <p>
+ * Each run is labelled, e.g. with the poller settings under test, and appends a line to
+ * {@code <reports>/ingest/summary.csv} and writes its backlog to {@code <reports>/ingest/<label>-backlog.csv}, so runs
+ * with different settings (see {@link AdapterInstance#reconfigure(Properties, int, int)}) can be compared.
+ * </p>
+ */
+public class FileIngestHarness {
+    private static final String SUMMARY_HEADER = "timestamp,label,files,completed,elapsedMs,filesPerSecond,p50us,p99us,maxUs";
+
+    private final FileEventDispatcher events;
+    private final Path consumeDir;
+    private final Path produceDir;
+    private Path stagingDir;
+    private String label = "default";
+    private int files = 100;
+    private IntFunction<String> fileName = i -> String.format("ingest-%06d.xml", i);
+    private IntFunction<Payload> payload = i -> Payload.of(("<message id=\"" + i + "\"/>").getBytes(StandardCharsets.UTF_8),
+            ContentType.APPLICATION_XML);
+    private String outputGlob = "*";
+    private Function<Path, String> outputToInput = output -> output.getFileName().toString();
+    private double filesPerSecond = 0;
+    private Duration timeout = Duration.ofSeconds(60);
+    private long backlogSampleMillis = 100;
+
+    public FileIngestHarness(FileEventDispatcher events, Path consumeDir, Path produceDir) {
+        this.events = events;
+        this.consumeDir = consumeDir.toAbsolutePath().normalize();
+        this.produceDir = produceDir.toAbsolutePath().normalize();
+        this.stagingDir = this.consumeDir.resolveSibling(this.consumeDir.getFileName() + ".staging");
+    }
+
+    public FileIngestHarness withLabel(String label) {
+        this.label = label;
+        return this;
+    }
+
+    public FileIngestHarness withFiles(int files) {
+        this.files = files;
+        return this;
+    }
+
+    /**
+     * @param fileName the name of the n'th input file.
+     */
+    public FileIngestHarness withFileName(IntFunction<String> fileName) {
+        this.fileName = fileName;
+        return this;
+    }
+
+    /**
+     * @param payload the contents of the n'th input file.
+     */
+    public FileIngestHarness withPayload(IntFunction<byte[]> payload) {
+        return withPayloads(i -> Payload.of(payload.apply(i), ContentType.APPLICATION_OCTET_STREAM));
+    }
+
+    /**
+     * @param payload the n'th input file, e.g. a large generated {@link Payload} that is streamed to disk.
+     */
+    public FileIngestHarness withPayloads(IntFunction<Payload> payload) {
+        this.payload = payload;
+        return this;
+    }
+
+    /**
+     * @param outputGlob the output files to watch for, e.g. {@code *.xml}.
+     * @param outputToInput the name of the input file an output file was produced from, or null if it is not one of
+     *                      this run's outputs; by default the output has the same name as the input.
+     */
+    public FileIngestHarness withOutputMatcher(String outputGlob, Function<Path, String> outputToInput) {
+        this.outputGlob = outputGlob;
+        this.outputToInput = outputToInput;
+        return this;
+    }
+
+    /**
+     * Write the input files at this rate rather than as fast as possible.
+     */
+    public FileIngestHarness withRate(double filesPerSecond) {
+        this.filesPerSecond = filesPerSecond;
+        return this;
+    }
+
+    /**
+     * @param stagingDir where files are written before being moved into the consume directory; it must be on the
+     *                   same file system. Defaults to a {@code .staging} sibling of the consume directory.
+     */
+    public FileIngestHarness withStagingDirectory(Path stagingDir) {
+        this.stagingDir = stagingDir.toAbsolutePath().normalize();
+        return this;
+    }
+
+    public FileIngestHarness withTimeout(Duration timeout) {
+        this.timeout = timeout;
+        return this;
+    }
+
+    public FileIngestHarness withBacklogSampleInterval(long millis) {
+        this.backlogSampleMillis = millis;
+        return this;
+    }
+
+    /**
+     * Write the files and wait for their outputs, or for the timeout.
+     *
+     * @return the result, which covers the files completed if the timeout expired.
+     */
+    public IngestResult run() throws Exception {
+        Files.createDirectories(stagingDir);
+        Files.createDirectories(consumeDir);
+        Files.createDirectories(produceDir);
+        Map<String, Long> written = new ConcurrentHashMap<>();
+        AtomicInteger writtenCount = new AtomicInteger();
+        List<IngestResult.BacklogSample> backlog = Collections.synchronizedList(new ArrayList<>());
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "file-ingest-backlog-" + label);
+            thread.setDaemon(true);
+            return thread;
+        });
+        try (FileEventDispatcher.FileWatch watch = events.watch(produceDir, outputGlob, ENTRY_CREATE)) {
+            long start = System.nanoTime();
+            sampler.scheduleAtFixedRate(() -> backlog.add(new IngestResult.BacklogSample(
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), countWaiting(),
+                    Math.max(0, writtenCount.get() - watch.getCount()))), 0, backlogSampleMillis, TimeUnit.MILLISECONDS);
+            for (int i = 0; i < files; i++) {
+                if (filesPerSecond > 0) pace(start, i);
+                String name = fileName.apply(i);
+                written.put(name, write(name, payload.apply(i)));
+                writtenCount.incrementAndGet();
+            }
+            Map<String, Long> completed = awaitOutputs(watch, written, start + timeout.toNanos());
+            sampler.shutdownNow();
+            return report(written, completed, start, new ArrayList<>(backlog));
+        } finally {
+            sampler.shutdownNow();
+        }
+    }
+
+    private Map<String, Long> awaitOutputs(FileEventDispatcher.FileWatch watch, Map<String, Long> written, long deadline) throws InterruptedException {
+        Map<String, Long> completed = new HashMap<>();
+        int target = files;
+        while (completed.size() < files) {
+            long remaining = deadline - System.nanoTime();
+            try {
+                if (remaining <= 0) throw new TimeoutException();
+                watch.await(target, Duration.ofNanos(remaining));
+            } catch (TimeoutException e) {
+                match(watch, written, completed);
+                break;
+            }
+            match(watch, written, completed);
+            target = watch.getCount() + files - completed.size();
+        }
+        return completed;
+    }
+
+    private void match(FileEventDispatcher.FileWatch watch, Map<String, Long> written, Map<String, Long> completed) {
+        for (Map.Entry<Path, Long> output : watch.getEventTimes().entrySet()) {
+            String input = outputToInput.apply(output.getKey());
+            if (input != null && written.containsKey(input)) completed.putIfAbsent(input, output.getValue());
+        }
+    }
+
+    private IngestResult report(Map<String, Long> written, Map<String, Long> completed, long start,
+                                List<IngestResult.BacklogSample> backlog) throws IOException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        long last = start;
+        for (Map.Entry<String, Long> output : completed.entrySet()) {
+            histogram.recordValue(TimeUnit.NANOSECONDS.toMicros(output.getValue() - written.get(output.getKey())));
+            last = Math.max(last, output.getValue());
+        }
+        IngestResult result = new IngestResult(label, files, completed.size(), Duration.ofNanos(last - start), histogram, backlog);
+        try (Writer writer = new FileWriter(TestReports.reportFile("ingest", label + "-backlog.csv"), false)) {
+            writer.write("elapsedMs,waiting,outstanding" + System.lineSeparator());
+            for (IngestResult.BacklogSample sample : backlog) {
+                writer.write(sample.getElapsedMillis() + "," + sample.getWaiting() + "," + sample.getOutstanding() + System.lineSeparator());
+            }
+        }
+        appendSummary(result);
+        return result;
+    }
+
+    private static synchronized void appendSummary(IngestResult result) throws IOException {
+        File summary = TestReports.reportFile("ingest", "summary.csv");
+        boolean exists = summary.exists();
+        try (Writer writer = new FileWriter(summary, true)) {
+            if (!exists) writer.write(SUMMARY_HEADER + System.lineSeparator());
+            LatencyHistogram histogram = result.getHistogram();
+            writer.write(String.join(",", String.valueOf(System.currentTimeMillis()), result.getLabel(),
+                    String.valueOf(result.getFiles()), String.valueOf(result.getCompleted()),
+                    String.valueOf(result.getElapsed().toMillis()), String.format("%.1f", result.getFilesPerSecond()),
+                    String.valueOf(histogram.getValueAtPercentile(50.0)), String.valueOf(histogram.getValueAtPercentile(99.0)),
+                    String.valueOf(histogram.getMax())) + System.lineSeparator());
+        }
+    }
+
+    private void pace(long start, int i) throws InterruptedException {
+        long due = start + (long) (i * 1_000_000_000L / filesPerSecond);
+        long wait = due - System.nanoTime();
+        if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+    }
+
+    /**
+     * @return the {@link System#nanoTime()} just after the file was moved into the consume directory.
+     */
+    private long write(String name, Payload payload) throws IOException {
+        payload.dropInto(consumeDir, name, stagingDir);
+        return System.nanoTime();
+    }
+
+    private int countWaiting() {
+        int count = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(consumeDir)) {
+            for (Path ignored : stream) count++;
+        } catch (IOException e) {
+            return -1;
+        }
+        return count;
+    }
+}
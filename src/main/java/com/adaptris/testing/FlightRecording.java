@@ -0,0 +1,294 @@
+package com.adaptris.testing;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingFile;
+import jdk.management.jfr.FlightRecorderMXBean;
+
+import javax.management.JMX;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * A Java Flight Recorder recording of an adapter JVM, controlled over its JMX connection.
+ * <p>
+ * {@link #start()} creates a recording with the {@code profile} settings (or those given to
+ * {@link #withSettings(String)}) through the {@code jdk.management.jfr:type=FlightRecorder} MBean; {@link #stop()}
+ * stops it and streams it over the same connection to {@code <reports>/jfr/<name>.jfr}, then writes a summary of
+ * the hottest methods, the top allocation sites, the most contended monitors and the GC pauses to
+ * {@code <reports>/jfr/<name>-summary.txt}. The recording can be opened in JDK Mission Control for more detail.
+ * </p>
+ * <p>
+ * For an adapter started with {@link AdapterInstance#launch()} the adapter shares the test's JVM, so the recording
+ * covers the test's threads as well.
+ * </p>
+ */
+public class FlightRecording implements AutoCloseable {
+    public static final ObjectName FLIGHT_RECORDER_NAME = objectName("jdk.management.jfr:type=FlightRecorder");
+
+    private final Supplier<MBeanServerConnection> connection;
+    private final String name;
+    private String settings = "profile";
+    private int topN = 10;
+    private FlightRecorderMXBean recorder;
+    private long recordingId = -1;
+    private Summary summary;
+
+    /**
+     * @param connection supplies the connection to the adapter JVM.
+     * @param name the name of the recording and its report files.
+     */
+    public FlightRecording(Supplier<MBeanServerConnection> connection, String name) {
+        this.connection = connection;
+        this.name = name;
+    }
+
+    /**
+     * @param settings a predefined configuration in the adapter's JDK, {@code default} (lower overhead) or
+     *                 {@code profile}.
+     */
+    public FlightRecording withSettings(String settings) {
+        this.settings = settings;
+        return this;
+    }
+
+    /**
+     * @param topN how many methods, allocation sites and monitors to list in the summary.
+     */
+    public FlightRecording withTopN(int topN) {
+        this.topN = topN;
+        return this;
+    }
+
+    public synchronized FlightRecording start() throws Exception {
+        if (recordingId >= 0) return this;
+        recorder = JMX.newMXBeanProxy(connection.get(), FLIGHT_RECORDER_NAME, FlightRecorderMXBean.class);
+        recordingId = recorder.newRecording();
+        recorder.setPredefinedConfiguration(recordingId, settings);
+        recorder.setRecordingOptions(recordingId, Map.of("name", name, "disk", "true"));
+        recorder.startRecording(recordingId);
+        return this;
+    }
+
+    /**
+     * Stop the recording, copy it from the adapter JVM and summarise it.
+     *
+     * @return the summary, which has also been written next to the recording.
+     */
+    public synchronized Summary stop() throws Exception {
+        if (recordingId < 0) throw new IllegalStateException("Recording " + name + " has not been started");
+        File output = TestReports.reportFile("jfr", name + ".jfr");
+        try {
+            recorder.stopRecording(recordingId);
+            long streamId = recorder.openStream(recordingId, Map.of("blockSize", String.valueOf(1024 * 1024)));
+            try (OutputStream out = new FileOutputStream(output)) {
+                byte[] block;
+                while ((block = recorder.readStream(streamId)) != null) {
+                    out.write(block);
+                }
+            } finally {
+                recorder.closeStream(streamId);
+            }
+        } finally {
+            closeRecording();
+        }
+        summary = summarise(output, topN);
+        Files.write(TestReports.reportFile("jfr", name + "-summary.txt").toPath(), summary.toString().getBytes(StandardCharsets.UTF_8));
+        return summary;
+    }
+
+    /**
+     * Record while the phase runs, e.g. a {@link LoadDriver} run; the summary is then available from
+     * {@link #getSummary()}.
+     */
+    public <T> T record(Callable<T> phase) throws Exception {
+        start();
+        try {
+            return phase.call();
+        } finally {
+            stop();
+        }
+    }
+
+    /**
+     * @return the summary of the last recording, or null if none has been stopped.
+     */
+    public synchronized Summary getSummary() {
+        return summary;
+    }
+
+    /**
+     * Discard the recording if it is still running, without copying it.
+     */
+    @Override
+    public synchronized void close() {
+        if (recordingId >= 0) closeRecording();
+    }
+
+    private void closeRecording() {
+        try {
+            recorder.closeRecording(recordingId);
+        } catch (Exception e) {
+            // the adapter JVM has gone, and the recording with it.
+        }
+        recordingId = -1;
+    }
+
+    public static Summary summarise(File recording, int topN) throws IOException {
+        Map<String, Long> cpu = new HashMap<>();
+        Map<String, Long> allocations = new HashMap<>();
+        Map<String, Long> tlabAllocations = new HashMap<>();
+        Map<String, Long> contention = new HashMap<>();
+        long executionSamples = 0;
+        long gcCount = 0;
+        Duration gcPauses = Duration.ZERO;
+        Duration longestGcPause = Duration.ZERO;
+        try (RecordingFile file = new RecordingFile(recording.toPath())) {
+            while (file.hasMoreEvents()) {
+                RecordedEvent event = file.readEvent();
+                switch (event.getEventType().getName()) {
+                    case "jdk.ExecutionSample":
+                        executionSamples++;
+                        cpu.merge(topFrame(event.getStackTrace()), 1L, Long::sum);
+                        break;
+                    case "jdk.ObjectAllocationSample":
+                        allocations.merge(allocationSite(event), event.getLong("weight"), Long::sum);
+                        break;
+                    case "jdk.ObjectAllocationInNewTLAB":
+                        tlabAllocations.merge(allocationSite(event), event.getLong("tlabSize"), Long::sum);
+                        break;
+                    case "jdk.JavaMonitorEnter":
+                        contention.merge(event.getClass("monitorClass") == null ? "?" : event.getClass("monitorClass").getName(),
+                                event.getDuration().toNanos(), Long::sum);
+                        break;
+                    case "jdk.GarbageCollection":
+                        gcCount++;
+                        Duration pause = event.getDuration("sumOfPauses");
+                        gcPauses = gcPauses.plus(pause);
+                        if (pause.compareTo(longestGcPause) > 0) longestGcPause = pause;
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+        // the profile settings record both; the samples' weights are the better estimate, so TLAB sizes are only
+        // used for recordings without them.
+        if (allocations.isEmpty()) allocations = tlabAllocations;
+        return new Summary(recording, executionSamples, top(cpu, topN), top(allocations, topN), top(contention, topN),
+                gcCount, gcPauses, longestGcPause);
+    }
+
+    private static String allocationSite(RecordedEvent event) {
+        String type = event.getClass("objectClass") == null ? "?" : event.getClass("objectClass").getName();
+        return type + " at " + topFrame(event.getStackTrace());
+    }
+
+    private static String topFrame(RecordedStackTrace stackTrace) {
+        if (stackTrace == null || stackTrace.getFrames().isEmpty()) return "<no stack>";
+        RecordedFrame frame = stackTrace.getFrames().get(0);
+        return frame.getMethod().getType().getName() + "." + frame.getMethod().getName();
+    }
+
+    private static LinkedHashMap<String, Long> top(Map<String, Long> values, int topN) {
+        return values.entrySet().stream().sorted(Map.Entry.<String, Long>comparingByValue().reversed()).limit(topN)
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (a, b) -> a, LinkedHashMap::new));
+    }
+
+    private static ObjectName objectName(String name) {
+        try {
+            return new ObjectName(name);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * The highlights of a recording.
+     */
+    public static class Summary {
+        private final File recording;
+        private final long executionSamples;
+        private final Map<String, Long> hotMethods;
+        private final Map<String, Long> allocationSites;
+        private final Map<String, Long> contendedMonitors;
+        private final long gcCount;
+        private final Duration gcPauses;
+        private final Duration longestGcPause;
+
+        Summary(File recording, long executionSamples, Map<String, Long> hotMethods, Map<String, Long> allocationSites,
+                Map<String, Long> contendedMonitors, long gcCount, Duration gcPauses, Duration longestGcPause) {
+            this.recording = recording;
+            this.executionSamples = executionSamples;
+            this.hotMethods = hotMethods;
+            this.allocationSites = allocationSites;
+            this.contendedMonitors = contendedMonitors;
+            this.gcCount = gcCount;
+            this.gcPauses = gcPauses;
+            this.longestGcPause = longestGcPause;
+        }
+
+        public File getRecording() {
+            return recording;
+        }
+
+        /**
+         * @return the methods on top of the stack most often, with their sample counts.
+         */
+        public Map<String, Long> getHotMethods() {
+            return hotMethods;
+        }
+
+        /**
+         * @return the allocating type and method, with the (estimated) bytes allocated.
+         */
+        public Map<String, Long> getAllocationSites() {
+            return allocationSites;
+        }
+
+        /**
+         * @return the classes of the monitors threads blocked on, with the total time blocked in nanoseconds.
+         */
+        public Map<String, Long> getContendedMonitors() {
+            return contendedMonitors;
+        }
+
+        public long getGcCount() {
+            return gcCount;
+        }
+
+        public Duration getGcPauses() {
+            return gcPauses;
+        }
+
+        public Duration getLongestGcPause() {
+            return longestGcPause;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder();
+            text.append(String.format("%s: %d execution samples, %d GCs, %dms paused (longest %dms)%n", recording.getName(),
+                    executionSamples, gcCount, gcPauses.toMillis(), longestGcPause.toMillis()));
+            text.append(String.format("%nHot methods (samples)%n"));
+            hotMethods.forEach((method, count) -> text.append(String.format("  %8d  %s%n", count, method)));
+            text.append(String.format("%nAllocation sites (bytes)%n"));
+            allocationSites.forEach((site, bytes) -> text.append(String.format("  %12d  %s%n", bytes, site)));
+            text.append(String.format("%nContended monitors (ms blocked)%n"));
+            contendedMonitors.forEach((monitor, nanos) -> text.append(String.format("  %8d  %s%n", nanos / 1_000_000, monitor)));
+            return text.toString();
+        }
+    }
+}
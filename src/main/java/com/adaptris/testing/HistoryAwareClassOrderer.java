@@ -0,0 +1,49 @@
+package com.adaptris.testing;
+
+import org.junit.jupiter.api.ClassDescriptor;
+import org.junit.jupiter.api.ClassOrderer;
+import org.junit.jupiter.api.ClassOrdererContext;
+
+import java.util.*;
+
+/**
+ * Orders functional test classes using the {@link TestClassHistory} of earlier runs.
+ * <p>
+ * Classes whose adapters had the same configuration fingerprint are run one after another, so that with the
+ * {@link SharedAdapterPoolExtension} the adapter the first of them starts is still running (and not evicted) for the
+ * rest. The groups run longest first, so that a slow group does not start last and leave the fork running alone at
+ * the end; classes with no history are treated as taking the median time, each in a group of its own.
+ * </p>
+ * <p>
+ * Enable it with the JUnit configuration parameter
+ * {@code junit.jupiter.testclass.order.default=com.adaptris.testing.HistoryAwareClassOrderer}, as the
+ * {@code functionalTest} task does.
+ * </p>
+ */
+public class HistoryAwareClassOrderer implements ClassOrderer {
+
+    @Override
+    public void orderClasses(ClassOrdererContext context) {
+        Map<String, TestClassHistory.Entry> history = TestClassHistory.load();
+        if (history.isEmpty()) return;
+        long median = median(history.values());
+        Map<String, Long> groupDurations = new HashMap<>();
+        Map<ClassDescriptor, String> groups = new HashMap<>();
+        for (ClassDescriptor descriptor : context.getClassDescriptors()) {
+            String className = descriptor.getTestClass().getName();
+            TestClassHistory.Entry entry = history.get(className);
+            String group = entry == null || entry.getFingerprint().isEmpty() ? "class:" + className : entry.getFingerprint();
+            groups.put(descriptor, group);
+            groupDurations.merge(group, entry == null ? median : entry.getDurationMillis(), Long::sum);
+        }
+        Comparator<ClassDescriptor> byGroupDuration = Comparator.comparing(descriptor -> groupDurations.get(groups.get(descriptor)));
+        context.getClassDescriptors().sort(byGroupDuration.reversed()
+                .thenComparing(groups::get)
+                .thenComparing(descriptor -> descriptor.getTestClass().getName()));
+    }
+
+    private static long median(Collection<TestClassHistory.Entry> entries) {
+        long[] durations = entries.stream().mapToLong(TestClassHistory.Entry::getDurationMillis).sorted().toArray();
+        return durations.length == 0 ? 0 : durations[durations.length / 2];
+    }
+}
@@ -0,0 +1,71 @@
+package com.adaptris.testing;
+
+import org.apache.hc.client5.testing.classic.EchoHandler;
+import org.apache.hc.core5.http.impl.bootstrap.HttpServer;
+import org.apache.hc.core5.http.impl.bootstrap.ServerBootstrap;
+import org.apache.hc.core5.http.io.HttpRequestHandler;
+import org.apache.hc.core5.io.CloseMode;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An embedded HTTP/1.1 server (httpcore5 classic) standing in for an HTTP service.
+ */
+public class HttpStandIn implements StandIn {
+    private final Map<String, HttpRequestHandler> handlers = new LinkedHashMap<>();
+    private HttpServer server;
+    private InetSocketAddress address;
+
+    /**
+     * @param uriPattern the request URIs to handle, e.g. {@code /api/*} or {@code *}.
+     */
+    public HttpStandIn withHandler(String uriPattern, HttpRequestHandler handler) {
+        handlers.put(uriPattern, handler);
+        return this;
+    }
+
+    /**
+     * Echo the body of requests matching the pattern back to the client.
+     */
+    public HttpStandIn withEcho(String uriPattern) {
+        return withHandler(uriPattern, new EchoHandler());
+    }
+
+    @Override
+    public InetSocketAddress start() throws Exception {
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        ServerBootstrap bootstrap = ServerBootstrap.bootstrap().setLocalAddress(loopback).setListenerPort(0);
+        handlers.forEach(bootstrap::register);
+        server = bootstrap.create();
+        server.start();
+        address = new InetSocketAddress(loopback, server.getLocalPort());
+        return address;
+    }
+
+    /**
+     * @return the address the server is listening on, or null if it has not been started.
+     */
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * @return the base URL of the server, e.g. {@code http://127.0.0.1:41234}.
+     */
+    public String getUrl() {
+        if (address == null) throw new IllegalStateException("Not started");
+        return "http://" + address.getAddress().getHostAddress() + ":" + address.getPort();
+    }
+
+    @Override
+    public void close() {
+        if (server != null) {
+            server.close(CloseMode.IMMEDIATE);
+            server = null;
+            address = null;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.adaptris.testing;
+
+import java.net.InetSocketAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A {@link TestEnvironment} made of {@link StandIn}s started in the test JVM on ephemeral ports, so that tests which
+ * normally need docker compose can run locally in a fraction of the time.
+ * <pre>{@code
+ * protected void setupStandIns(InProcessEnvironment environment) {
+ *     environment.withService("backend", 8080, StandIn.httpEcho())
+ *             .withService("audit", 9000, StandIn.tcpSink());
+ * }
+ * }</pre>
+ */
+public class InProcessEnvironment implements TestEnvironment {
+    private final Map<String, StandIn> standIns = new LinkedHashMap<>();
+    private final Map<String, InetSocketAddress> addresses = new LinkedHashMap<>();
+
+    /**
+     * Stand in for the given port of a compose service.
+     */
+    public InProcessEnvironment withService(String serviceName, int port, StandIn standIn) {
+        standIns.put(key(serviceName, port), standIn);
+        return this;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T extends StandIn> T getStandIn(String serviceName, int port) {
+        return (T) standIns.get(key(serviceName, port));
+    }
+
+    @Override
+    public void start() throws Exception {
+        for (Map.Entry<String, StandIn> entry : standIns.entrySet()) {
+            addresses.put(entry.getKey(), entry.getValue().start());
+        }
+    }
+
+    @Override
+    public InetSocketAddress getServiceAddress(String serviceName, int port) {
+        InetSocketAddress address = addresses.get(key(serviceName, port));
+        if (address == null) {
+            throw new IllegalArgumentException("No stand-in started for " + key(serviceName, port));
+        }
+        return address;
+    }
+
+    @Override
+    public void close() throws Exception {
+        Exception failure = null;
+        for (StandIn standIn : standIns.values()) {
+            try {
+                standIn.close();
+            } catch (Exception e) {
+                if (failure == null) failure = e;
+            }
+        }
+        addresses.clear();
+        if (failure != null) throw failure;
+    }
+
+    private static String key(String serviceName, int port) {
+        return serviceName + ":" + port;
+    }
+}
@@ -0,0 +1,113 @@
+package com.adaptris.testing;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * The outcome of a {@link FileIngestHarness} run.
+ */
+public class IngestResult {
+    private final String label;
+    private final int files;
+    private final int completed;
+    private final Duration elapsed;
+    private final LatencyHistogram histogram;
+    private final List<BacklogSample> backlog;
+
+    public IngestResult(String label, int files, int completed, Duration elapsed, LatencyHistogram histogram, List<BacklogSample> backlog) {
+        this.label = label;
+        this.files = files;
+        this.completed = completed;
+        this.elapsed = elapsed;
+        this.histogram = histogram;
+        this.backlog = backlog;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * @return the number of input files written.
+     */
+    public int getFiles() {
+        return files;
+    }
+
+    /**
+     * @return the number of input files with a matching output file.
+     */
+    public int getCompleted() {
+        return completed;
+    }
+
+    /**
+     * @return the time from the first input file being written to the last output file appearing.
+     */
+    public Duration getElapsed() {
+        return elapsed;
+    }
+
+    /**
+     * @return completed files per second, end to end.
+     */
+    public double getFilesPerSecond() {
+        double seconds = elapsed.toNanos() / 1_000_000_000.0;
+        return seconds <= 0 ? 0 : completed / seconds;
+    }
+
+    /**
+     * @return the latency histogram in microseconds, from each input file appearing to its output appearing.
+     */
+    public LatencyHistogram getHistogram() {
+        return histogram;
+    }
+
+    public Duration getLatency(double percentile) {
+        return Duration.ofNanos(histogram.getValueAtPercentile(percentile) * 1000);
+    }
+
+    public List<BacklogSample> getBacklog() {
+        return backlog;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: files/s=%.1f p50=%dus p99=%dus max=%dus completed=%d/%d",
+                label, getFilesPerSecond(), histogram.getValueAtPercentile(50.0), histogram.getValueAtPercentile(99.0),
+                histogram.getMax(), completed, files);
+    }
+
+    /**
+     * The backlog at one point during a run.
+     */
+    public static class BacklogSample {
+        private final long elapsedMillis;
+        private final int waiting;
+        private final int outstanding;
+
+        public BacklogSample(long elapsedMillis, int waiting, int outstanding) {
+            this.elapsedMillis = elapsedMillis;
+            this.waiting = waiting;
+            this.outstanding = outstanding;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        /**
+         * @return the files still in the consume directory, i.e. not yet picked up by the poller.
+         */
+        public int getWaiting() {
+            return waiting;
+        }
+
+        /**
+         * @return the files written that have no output yet.
+         */
+        public int getOutstanding() {
+            return outstanding;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.adaptris.testing;
+
+import com.adaptris.core.SerializableAdaptrisMessage;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * The outcome of a {@link MessageInjector} run against one workflow.
+ */
+public class InjectionResult {
+    private final String name;
+    private final int messages;
+    private final long errors;
+    private final Duration elapsed;
+    private final LatencyHistogram histogram;
+    private final List<SerializableAdaptrisMessage> replies;
+    private final List<String> errorSamples;
+
+    public InjectionResult(String name, int messages, long errors, Duration elapsed, LatencyHistogram histogram,
+                           List<SerializableAdaptrisMessage> replies, List<String> errorSamples) {
+        this.name = name;
+        this.messages = messages;
+        this.errors = errors;
+        this.elapsed = elapsed;
+        this.histogram = histogram;
+        this.replies = replies;
+        this.errorSamples = errorSamples;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the number of measured messages sent.
+     */
+    public int getMessages() {
+        return messages;
+    }
+
+    /**
+     * @return the messages that failed, were not accepted or were rejected by the reply check.
+     */
+    public long getErrors() {
+        return errors;
+    }
+
+    public Duration getElapsed() {
+        return elapsed;
+    }
+
+    public double getMessagesPerSecond() {
+        double seconds = elapsed.toNanos() / 1_000_000_000.0;
+        return seconds <= 0 ? 0 : (messages - errors) / seconds;
+    }
+
+    /**
+     * @return the latency of each injection in microseconds.
+     */
+    public LatencyHistogram getHistogram() {
+        return histogram;
+    }
+
+    public Duration getLatency(double percentile) {
+        return Duration.ofNanos(histogram.getValueAtPercentile(percentile) * 1000);
+    }
+
+    /**
+     * @return the first replies received, up to the capture limit.
+     */
+    public List<SerializableAdaptrisMessage> getReplies() {
+        return replies;
+    }
+
+    /**
+     * @return descriptions of the first errors, up to the capture limit.
+     */
+    public List<String> getErrorSamples() {
+        return errorSamples;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s messages=%d errors=%d %.1f/s p50=%dus p99=%dus max=%dus", name, messages, errors,
+                getMessagesPerSecond(), histogram.getValueAtPercentile(50.0), histogram.getValueAtPercentile(99.0),
+                histogram.getMax());
+    }
+}
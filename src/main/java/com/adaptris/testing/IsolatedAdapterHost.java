@@ -0,0 +1,471 @@
+package com.adaptris.testing;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerDelegate;
+import javax.management.MBeanServerNotification;
+import javax.management.Notification;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Runs an adapter inside the test JVM in its own class loader, so that several adapters can share a JVM (and its
+ * JIT compiled code) without sharing Interlok's static state.
+ * <p>
+ * The class loader holds the jars in the distribution's {@code lib} directory, with the platform class loader as its
+ * parent, so nothing is shared with the test's own copy of Interlok. The launcher runs on a thread whose context
+ * class loader is the host's loader, and threads the adapter starts inherit it. System properties set with
+ * {@link #withSystemProperty(String, String)} (e.g. {@code adp.license.location}), and any the adapter sets itself,
+ * are only visible to threads with that context class loader; other threads see the JVM's properties. That includes
+ * the RMI threads that serve JMX calls such as {@code requestStart}, so anything the adapter needs after launch
+ * belongs in its bootstrap properties rather than in a host system property. The JVM's properties are replaced while
+ * any host is open; lookups and enumerations from a host's threads see a merged copy, so changing the sets returned
+ * by {@code System.getProperties().keySet()} and the like has no effect, and removing a JVM property from a host's
+ * thread is ignored.
+ * </p>
+ * <p>
+ * Each adapter still needs its own JMX and web server ports in its bootstrap properties. All the adapters register
+ * their MBeans with the JVM's platform MBeanServer, so every JMX connector sees every adapter, and there is only one
+ * {@code AdapterRegistry} MBean; each host therefore records the adapter MBeans registered by its own threads (see
+ * {@link #getAdapterName()}) and the adapters must have different unique ids.
+ * </p>
+ */
+public class IsolatedAdapterHost implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(IsolatedAdapterHost.class);
+
+    public static final String ISOLATED_PROPERTY = "interlok.testing.isolated";
+
+    private static final String LAUNCHER_CLASS = "com.adaptris.interlok.boot.InterlokLauncher";
+    private static final Map<ClassLoader, IsolatedAdapterHost> HOSTS = new ConcurrentHashMap<>();
+    private static ContextProperties properties;
+    private static boolean listening = false;
+
+    private final String name;
+    private final File libDir;
+    private final Properties systemProperties = new Properties();
+    private URLClassLoader classLoader;
+    private volatile ObjectName adapterName;
+
+    /**
+     * @param name a name for the host's threads, e.g. {@code adapter-1}.
+     * @param libDir the directory of Interlok jars, normally {@code lib} in the distribution directory.
+     */
+    public IsolatedAdapterHost(String name, File libDir) {
+        this.name = name;
+        this.libDir = libDir;
+    }
+
+    /**
+     * @return true if {@link #ISOLATED_PROPERTY} asks for in-process adapters to be hosted in their own class loaders.
+     */
+    public static boolean isEnabled() {
+        return Boolean.getBoolean(ISOLATED_PROPERTY);
+    }
+
+    /**
+     * Set a system property that only this adapter sees.
+     */
+    public IsolatedAdapterHost withSystemProperty(String key, String value) {
+        systemProperties.setProperty(key, value);
+        return this;
+    }
+
+    /**
+     * Create the class loader and run {@code InterlokLauncher.main} in it, returning when main returns.
+     */
+    public synchronized void launch(String... args) throws Exception {
+        if (classLoader != null) throw new IllegalStateException(name + " has already been launched");
+        classLoader = new URLClassLoader(name, jars(), ClassLoader.getPlatformClassLoader());
+        installProperties(this);
+        listenForAdapters();
+        CompletableFuture<Void> main = new CompletableFuture<>();
+        Thread launcher = new Thread(() -> {
+            try {
+                classLoader.loadClass(LAUNCHER_CLASS).getMethod("main", String[].class).invoke(null, (Object) args);
+                main.complete(null);
+            } catch (InvocationTargetException e) {
+                main.completeExceptionally(e.getCause());
+            } catch (Throwable e) {
+                main.completeExceptionally(e);
+            }
+        }, "isolated-" + name);
+        launcher.setContextClassLoader(classLoader);
+        launcher.start();
+        try {
+            main.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * @return the AdapterManager MBean registered by this host's adapter, or null if it has not been registered yet.
+     */
+    public ObjectName getAdapterName() {
+        return adapterName;
+    }
+
+    public ClassLoader getClassLoader() {
+        return classLoader;
+    }
+
+    /**
+     * Forget the adapter's system properties and close its class loader; the adapter itself should already have
+     * been closed over JMX. Warns about threads the adapter left running. When the last host closes, the JVM's own
+     * system properties are put back.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (classLoader == null) return;
+        uninstallProperties(this);
+        List<String> leftRunning = new ArrayList<>();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.isAlive() && !thread.isDaemon() && belongsTo(thread.getContextClassLoader())) {
+                leftRunning.add(thread.getName());
+            }
+        }
+        if (!leftRunning.isEmpty()) {
+            log.warn("{} left threads running: {}", name, String.join(", ", leftRunning));
+        }
+        classLoader.close();
+        classLoader = null;
+        adapterName = null;
+    }
+
+    private boolean belongsTo(ClassLoader loader) {
+        for (ClassLoader current = loader; current != null; current = current.getParent()) {
+            if (current == classLoader) return true;
+        }
+        return false;
+    }
+
+    private URL[] jars() throws IOException {
+        File[] files = libDir.listFiles((dir, file) -> file.endsWith(".jar"));
+        if (files == null || files.length == 0) throw new IOException("No jars in " + libDir.getAbsolutePath());
+        Arrays.sort(files);
+        URL[] urls = new URL[files.length];
+        for (int i = 0; i < files.length; i++) {
+            urls[i] = files[i].toURI().toURL();
+        }
+        return urls;
+    }
+
+    /**
+     * @return the host whose class loader is, or is an ancestor of, the current thread's context class loader.
+     */
+    private static IsolatedAdapterHost currentHost() {
+        if (HOSTS.isEmpty()) return null;
+        for (ClassLoader loader = Thread.currentThread().getContextClassLoader(); loader != null; loader = loader.getParent()) {
+            IsolatedAdapterHost host = HOSTS.get(loader);
+            if (host != null) return host;
+        }
+        return null;
+    }
+
+    private static synchronized void installProperties(IsolatedAdapterHost host) {
+        if (properties == null || System.getProperties() != properties) {
+            properties = new ContextProperties(System.getProperties());
+            System.setProperties(properties);
+        }
+        HOSTS.put(host.classLoader, host);
+    }
+
+    private static synchronized void uninstallProperties(IsolatedAdapterHost host) {
+        HOSTS.remove(host.classLoader);
+        if (HOSTS.isEmpty() && properties != null) {
+            if (System.getProperties() == properties) System.setProperties(properties.shared());
+            properties = null;
+        }
+    }
+
+    /**
+     * MBean registration notifications are delivered on the registering thread, so its context class loader says
+     * which host's adapter it is.
+     */
+    private static synchronized void listenForAdapters() throws Exception {
+        if (listening) return;
+        MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName adapters = new ObjectName("com.adaptris:type=Adapter,*");
+        NotificationListener listener = (Notification notification, Object handback) -> {
+            ObjectName registered = ((MBeanServerNotification) notification).getMBeanName();
+            IsolatedAdapterHost host = currentHost();
+            if (host != null && adapters.apply(registered)) host.adapterName = registered;
+        };
+        mbeanServer.addNotificationListener(MBeanServerDelegate.DELEGATE_NAME, listener,
+                notification -> MBeanServerNotification.REGISTRATION_NOTIFICATION.equals(notification.getType()), null);
+        listening = true;
+    }
+
+    /**
+     * The JVM's system properties, with a view per host: lookups and enumerations from a host's threads see that
+     * host's properties over the JVM's, and properties set by a host's threads only go to that host. Every mutating
+     * method is overridden, since {@link Properties} implements the bulk and functional ones without going through
+     * {@link #put(Object, Object)}.
+     */
+    private static class ContextProperties extends Properties {
+        ContextProperties(Properties shared) {
+            super.putAll(shared);
+        }
+
+        /**
+         * @return a copy of the JVM's properties, without any host's.
+         */
+        private Properties shared() {
+            Properties shared = new Properties();
+            for (Map.Entry<Object, Object> entry : super.entrySet()) {
+                shared.put(entry.getKey(), entry.getValue());
+            }
+            return shared;
+        }
+
+        /**
+         * @return the merged properties the current host sees, or null if the current thread is not a host's.
+         */
+        private Properties hostView() {
+            IsolatedAdapterHost host = currentHost();
+            if (host == null) return null;
+            Properties view = shared();
+            view.putAll(host.systemProperties);
+            return view;
+        }
+
+        @Override
+        public Set<Object> keySet() {
+            Properties view = hostView();
+            return view == null ? super.keySet() : Collections.unmodifiableSet(view.keySet());
+        }
+
+        @Override
+        public Set<Map.Entry<Object, Object>> entrySet() {
+            Properties view = hostView();
+            return view == null ? super.entrySet() : Collections.unmodifiableSet(view.entrySet());
+        }
+
+        @Override
+        public Collection<Object> values() {
+            Properties view = hostView();
+            return view == null ? super.values() : Collections.unmodifiableCollection(view.values());
+        }
+
+        @Override
+        public Set<String> stringPropertyNames() {
+            Properties view = hostView();
+            return view == null ? super.stringPropertyNames() : view.stringPropertyNames();
+        }
+
+        @Override
+        public Enumeration<?> propertyNames() {
+            Properties view = hostView();
+            return view == null ? super.propertyNames() : view.propertyNames();
+        }
+
+        @Override
+        public Enumeration<Object> keys() {
+            Properties view = hostView();
+            return view == null ? super.keys() : view.keys();
+        }
+
+        @Override
+        public Enumeration<Object> elements() {
+            Properties view = hostView();
+            return view == null ? super.elements() : view.elements();
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            IsolatedAdapterHost host = currentHost();
+            return host != null && host.systemProperties.containsKey(key) || super.containsKey(key);
+        }
+
+        @Override
+        public Object getOrDefault(Object key, Object defaultValue) {
+            Object value = get(key);
+            return value == null ? defaultValue : value;
+        }
+
+        @Override
+        public synchronized void forEach(BiConsumer<? super Object, ? super Object> action) {
+            Properties view = hostView();
+            if (view == null) {
+                super.forEach(action);
+            } else {
+                view.forEach(action);
+            }
+        }
+
+        @Override
+        public int size() {
+            Properties view = hostView();
+            return view == null ? super.size() : view.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return size() == 0;
+        }
+
+        @Override
+        public String getProperty(String key) {
+            IsolatedAdapterHost host = currentHost();
+            if (host != null && host.systemProperties.containsKey(key)) return host.systemProperties.getProperty(key);
+            return super.getProperty(key);
+        }
+
+        @Override
+        public String getProperty(String key, String defaultValue) {
+            String value = getProperty(key);
+            return value == null ? defaultValue : value;
+        }
+
+        @Override
+        public Object get(Object key) {
+            IsolatedAdapterHost host = currentHost();
+            if (host != null && host.systemProperties.containsKey(key)) return host.systemProperties.get(key);
+            return super.get(key);
+        }
+
+        @Override
+        public synchronized Object setProperty(String key, String value) {
+            IsolatedAdapterHost host = currentHost();
+            if (host != null) return host.systemProperties.setProperty(key, value);
+            return super.setProperty(key, value);
+        }
+
+        @Override
+        public Object put(Object key, Object value) {
+            IsolatedAdapterHost host = currentHost();
+            if (host != null) return host.systemProperties.put(key, value);
+            return super.put(key, value);
+        }
+
+        @Override
+        public synchronized void putAll(Map<?, ?> t) {
+            IsolatedAdapterHost host = currentHost();
+            if (host == null) {
+                super.putAll(t);
+                return;
+            }
+            host.systemProperties.putAll(t);
+        }
+
+        @Override
+        public synchronized Object putIfAbsent(Object key, Object value) {
+            IsolatedAdapterHost host = currentHost();
+            if (host == null) return super.putIfAbsent(key, value);
+            Object current = get(key);
+            if (current == null) host.systemProperties.put(key, value);
+            return current;
+        }
+
+        @Override
+        public synchronized Object replace(Object key, Object value) {
+            IsolatedAdapterHost host = currentHost();
+            if (host == null) return super.replace(key, value);
+            Object current = get(key);
+            if (current != null) host.systemProperties.put(key, value);
+            return current;
+        }
+
+        @Override
+        public synchronized boolean replace(Object key, Object oldValue, Object newValue) {
+            IsolatedAdapterHost host = currentHost();
+            if (host == null) return super.replace(key, oldValue, newValue);
+            Object current = get(key);
+            if (current == null || !current.equals(oldValue)) return false;
+            host.systemProperties.put(key, newValue);
+            return true;
+        }
+
+        @Override
+        public synchronized void replaceAll(BiFunction<? super Object, ? super Object, ?> function) {
+            IsolatedAdapterHost host = currentHost();
+            if (host == null) {
+                super.replaceAll(function);
+                return;
+            }
+            hostView().forEach((key, value) -> host.systemProperties.put(key, function.apply(key, value)));
+        }
+
+        @Override
+        public synchronized Object computeIfAbsent(Object key, Function<? super Object, ?> mappingFunction) {
+            IsolatedAdapterHost host = currentHost();
+            if (host == null) return super.computeIfAbsent(key, mappingFunction);
+            Object current = get(key);
+            if (current != null) return current;
+            Object value = mappingFunction.apply(key);
+            if (value != null) host.systemProperties.put(key, value);
+            return value;
+        }
+
+        @Override
+        public synchronized Object computeIfPresent(Object key, BiFunction<? super Object, ? super Object, ?> remappingFunction) {
+            IsolatedAdapterHost host = currentHost();
+            if (host == null) return super.computeIfPresent(key, remappingFunction);
+            Object current = get(key);
+            return current == null ? null : putOrRemove(host, key, remappingFunction.apply(key, current));
+        }
+
+        @Override
+        public synchronized Object compute(Object key, BiFunction<? super Object, ? super Object, ?> remappingFunction) {
+            IsolatedAdapterHost host = currentHost();
+            if (host == null) return super.compute(key, remappingFunction);
+            return putOrRemove(host, key, remappingFunction.apply(key, get(key)));
+        }
+
+        @Override
+        public synchronized Object merge(Object key, Object value, BiFunction<? super Object, ? super Object, ?> remappingFunction) {
+            IsolatedAdapterHost host = currentHost();
+            if (host == null) return super.merge(key, value, remappingFunction);
+            Object current = get(key);
+            return putOrRemove(host, key, current == null ? value : remappingFunction.apply(current, value));
+        }
+
+        @Override
+        public Object remove(Object key) {
+            IsolatedAdapterHost host = currentHost();
+            if (host != null) return host.systemProperties.remove(key);
+            return super.remove(key);
+        }
+
+        @Override
+        public synchronized boolean remove(Object key, Object value) {
+            IsolatedAdapterHost host = currentHost();
+            if (host != null) return host.systemProperties.remove(key, value);
+            return super.remove(key, value);
+        }
+
+        @Override
+        public synchronized void clear() {
+            IsolatedAdapterHost host = currentHost();
+            if (host != null) {
+                host.systemProperties.clear();
+                return;
+            }
+            super.clear();
+        }
+
+        private static Object putOrRemove(IsolatedAdapterHost host, Object key, Object value) {
+            if (value == null) {
+                host.systemProperties.remove(key);
+            } else {
+                host.systemProperties.put(key, value);
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.adaptris.testing;
+
+import com.adaptris.core.ComponentState;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Samples an adapter JVM's runtime telemetry over JMX at a fixed interval and writes it as CSV, one row per sample.
+ * <p>
+ * Each sample reads heap and non-heap usage, GC counts and times, thread counts and CPU load from the platform
+ * MBeans, and the numeric (and {@link ComponentState}) attributes of any adapter MBeans matching the configured
+ * queries (by default workflows and message metrics). All the attributes of an MBean are read with a single
+ * {@code getAttributes} call, and the attributes to read are only discovered once, when sampling starts.
+ * </p>
+ */
+public class JmxMetricsSampler implements AutoCloseable {
+    public static final List<String> DEFAULT_ADAPTER_QUERIES = List.of("com.adaptris:type=Workflow,*", "com.adaptris:type=*Metrics*,*");
+
+    private static final Set<String> NUMERIC_TYPES = Set.of("int", "long", "double", "float", "short", "byte",
+            Integer.class.getName(), Long.class.getName(), Double.class.getName(), Float.class.getName(),
+            Short.class.getName(), Byte.class.getName());
+
+    private final Supplier<MBeanServerConnection> connection;
+    private final File output;
+    private final long intervalMillis;
+    private List<String> adapterQueries = DEFAULT_ADAPTER_QUERIES;
+
+    private final Map<ObjectName, String[]> sources = new LinkedHashMap<>();
+    private final List<String> columns = new ArrayList<>();
+    private ScheduledExecutorService scheduler;
+    private BufferedWriter writer;
+    private long startTime;
+    private int samples;
+
+    /**
+     * @param connection supplies the connection for each sample, so that a reconnected connector is picked up.
+     * @param output the CSV file to write.
+     * @param intervalMillis the interval between samples.
+     */
+    public JmxMetricsSampler(Supplier<MBeanServerConnection> connection, File output, long intervalMillis) {
+        this.connection = connection;
+        this.output = output;
+        this.intervalMillis = intervalMillis;
+    }
+
+    public JmxMetricsSampler withAdapterQueries(List<String> adapterQueries) {
+        this.adapterQueries = adapterQueries;
+        return this;
+    }
+
+    public File getOutput() {
+        return output;
+    }
+
+    public synchronized int getSamples() {
+        return samples;
+    }
+
+    public synchronized JmxMetricsSampler start() throws Exception {
+        if (scheduler != null) return this;
+        discover(connection.get());
+        writer = new BufferedWriter(new FileWriter(output, false));
+        writer.write(csvLine(columns));
+        writer.flush();
+        startTime = System.currentTimeMillis();
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "jmx-metrics-sampler-" + output.getName());
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(this::sampleQuietly, 0, intervalMillis, TimeUnit.MILLISECONDS);
+        return this;
+    }
+
+    /**
+     * Stop sampling; a sample that is in progress is allowed to finish (waiting outside the monitor, which it needs)
+     * before the file is closed.
+     */
+    public void stop() throws IOException {
+        ScheduledExecutorService stopping;
+        synchronized (this) {
+            if (scheduler == null) return;
+            stopping = scheduler;
+            scheduler = null;
+        }
+        stopping.shutdownNow();
+        try {
+            stopping.awaitTermination(intervalMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            if (writer == null) return;
+            try {
+                writer.close();
+            } finally {
+                writer = null;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        stop();
+    }
+
+    protected void discover(MBeanServerConnection mbeanServer) throws Exception {
+        sources.clear();
+        columns.clear();
+        columns.add("timestamp");
+        columns.add("elapsedMs");
+        addSource(new ObjectName("java.lang:type=Memory"), "heap", "HeapMemoryUsage", "NonHeapMemoryUsage");
+        addSource(new ObjectName("java.lang:type=Threading"), "threads", "ThreadCount", "DaemonThreadCount", "PeakThreadCount");
+        addSource(new ObjectName("java.lang:type=OperatingSystem"), "os", "ProcessCpuLoad", "SystemCpuLoad", "ProcessCpuTime");
+        for (ObjectName gc : new TreeSet<>(mbeanServer.queryNames(new ObjectName("java.lang:type=GarbageCollector,*"), null))) {
+            addSource(gc, "gc." + gc.getKeyProperty("name"), "CollectionCount", "CollectionTime");
+        }
+        for (String query : adapterQueries) {
+            for (ObjectName name : new TreeSet<>(mbeanServer.queryNames(new ObjectName(query), null))) {
+                List<String> attributes = new ArrayList<>();
+                for (MBeanAttributeInfo info : mbeanServer.getMBeanInfo(name).getAttributes()) {
+                    if (info.isReadable() && (NUMERIC_TYPES.contains(info.getType()) || ComponentState.class.getName().equals(info.getType()))) {
+                        attributes.add(info.getName());
+                    }
+                }
+                if (!attributes.isEmpty() && !sources.containsKey(name)) {
+                    addSource(name, name.getKeyPropertyListString(), attributes.toArray(new String[0]));
+                }
+            }
+        }
+    }
+
+    private void addSource(ObjectName name, String prefix, String... attributes) {
+        sources.put(name, attributes);
+        for (String attribute : attributes) {
+            if (attribute.endsWith("MemoryUsage")) {
+                String area = attribute.startsWith("Heap") ? "heap" : "nonHeap";
+                columns.add(area + ".used");
+                columns.add(area + ".committed");
+            } else {
+                columns.add(prefix + "." + attribute);
+            }
+        }
+    }
+
+    private void sampleQuietly() {
+        try {
+            sample();
+        } catch (Exception e) {
+            // the adapter may be restarting, or the connector may be reconnecting; skip this sample.
+        }
+    }
+
+    /**
+     * Take a sample now and append it to the CSV file.
+     */
+    public synchronized void sample() throws Exception {
+        if (writer == null) return;
+        MBeanServerConnection mbeanServer = connection.get();
+        long now = System.currentTimeMillis();
+        List<String> row = new ArrayList<>(columns.size());
+        row.add(String.valueOf(now));
+        row.add(String.valueOf(now - startTime));
+        for (Map.Entry<ObjectName, String[]> source : sources.entrySet()) {
+            Map<String, Object> values = new HashMap<>();
+            try {
+                AttributeList list = mbeanServer.getAttributes(source.getKey(), source.getValue());
+                for (Attribute attribute : list.asList()) {
+                    values.put(attribute.getName(), attribute.getValue());
+                }
+            } catch (javax.management.InstanceNotFoundException e) {
+                // the MBean has gone away (e.g. the adapter was reconfigured); leave its columns empty.
+            }
+            for (String attribute : source.getValue()) {
+                Object value = values.get(attribute);
+                if (attribute.endsWith("MemoryUsage")) {
+                    row.add(compositeValue(value, "used"));
+                    row.add(compositeValue(value, "committed"));
+                } else if (value instanceof ComponentState) {
+                    row.add(value.getClass().getSimpleName());
+                } else {
+                    row.add(value == null ? "" : String.valueOf(value));
+                }
+            }
+        }
+        writer.write(csvLine(row));
+        writer.flush();
+        samples++;
+    }
+
+    private static String compositeValue(Object value, String key) {
+        return value instanceof CompositeData ? String.valueOf(((CompositeData) value).get(key)) : "";
+    }
+
+    private static String csvLine(List<String> values) {
+        StringJoiner line = new StringJoiner(",", "", System.lineSeparator());
+        for (String value : values) {
+            line.add(value.contains(",") || value.contains("\"") ? "\"" + value.replace("\"", "\"\"") + "\"" : value);
+        }
+        return line.toString();
+    }
+}
@@ -0,0 +1,202 @@
+package com.adaptris.testing;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.*;
+
+/**
+ * JVM options for adapters started with {@link AdapterInstance#launchProcess()}.
+ * <p>
+ * Besides heap, GC and tiered compilation options, a profile can use an AppCDS archive of the Interlok classpath. The
+ * first launch with a given classpath, JVM and options dumps the archive when the adapter exits
+ * ({@code -XX:ArchiveClassesAtExit}); later launches map it ({@code -XX:SharedArchiveFile}) and skip most of the class
+ * loading. Only one launch at a time creates the archive; other launches in the meantime run without it. If the
+ * creating JVM is killed rather than exiting, no archive is written and the next launch tries again. Archives
+ * are kept in {@link #CDS_DIR_PROPERTY} (default {@code ./cds} under the working directory) until the build directory
+ * is cleaned.
+ * </p>
+ */
+public class LaunchProfile {
+    public static final String CDS_DIR_PROPERTY = "interlok.testing.cds.dir";
+
+    private static final long STALE_LOCK_MILLIS = 10 * 60 * 1000;
+
+    public enum CdsState {
+        NONE, CREATING, USING
+    }
+
+    private String name;
+    private String initialHeap;
+    private String maxHeap;
+    private final List<String> gcOptions = new ArrayList<>();
+    private final List<String> jvmOptions = new ArrayList<>();
+    private boolean appCds = false;
+    private int tieredStopAtLevel = 0;
+
+    public LaunchProfile(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return a profile with no JVM options, which is what {@link AdapterInstance#launchProcess()} uses by default.
+     */
+    public static LaunchProfile defaults() {
+        return new LaunchProfile("default");
+    }
+
+    /**
+     * @return a profile for short lived adapters: an AppCDS archive, C1 only compilation and the serial collector.
+     */
+    public static LaunchProfile fastStartup() {
+        return new LaunchProfile("fastStartup").withAppCds(true).withTieredStopAtLevel(1).withGc("-XX:+UseSerialGC");
+    }
+
+    public LaunchProfile withHeap(String initialHeap, String maxHeap) {
+        this.initialHeap = initialHeap;
+        this.maxHeap = maxHeap;
+        return this;
+    }
+
+    public LaunchProfile withGc(String... gcOptions) {
+        this.gcOptions.clear();
+        this.gcOptions.addAll(Arrays.asList(gcOptions));
+        return this;
+    }
+
+    public LaunchProfile withAppCds(boolean appCds) {
+        this.appCds = appCds;
+        return this;
+    }
+
+    /**
+     * @param level 1 to only use C1 (fastest warm up for short lived adapters); 0 to leave tiered compilation alone.
+     */
+    public LaunchProfile withTieredStopAtLevel(int level) {
+        this.tieredStopAtLevel = level;
+        return this;
+    }
+
+    public LaunchProfile withJvmOption(String... options) {
+        jvmOptions.addAll(Arrays.asList(options));
+        return this;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isAppCds() {
+        return appCds;
+    }
+
+    /**
+     * @return the options that do not depend on the AppCDS archive.
+     */
+    public List<String> getJvmOptions() {
+        List<String> options = new ArrayList<>();
+        if (initialHeap != null) options.add("-Xms" + initialHeap);
+        if (maxHeap != null) options.add("-Xmx" + maxHeap);
+        options.addAll(gcOptions);
+        if (tieredStopAtLevel > 0) options.add("-XX:TieredStopAtLevel=" + tieredStopAtLevel);
+        options.addAll(jvmOptions);
+        return options;
+    }
+
+    /**
+     * Work out the options for a launch, claiming the job of creating the AppCDS archive if it does not exist yet.
+     *
+     * @param libDir the Interlok lib directory that makes up the classpath.
+     */
+    public Launch prepare(File libDir) {
+        List<String> options = getJvmOptions();
+        if (!appCds) return new Launch(options, CdsState.NONE, null);
+        File archive = getArchive(libDir, options);
+        if (archive.exists() && archive.length() > 0) {
+            options.add("-XX:SharedArchiveFile=" + archive.getAbsolutePath());
+            return new Launch(options, CdsState.USING, archive);
+        }
+        File lock = new File(archive.getPath() + ".lock");
+        if (claim(lock)) {
+            options.add("-XX:ArchiveClassesAtExit=" + archive.getAbsolutePath());
+            return new Launch(options, CdsState.CREATING, archive, lock);
+        }
+        return new Launch(options, CdsState.NONE, null);
+    }
+
+    protected File getArchive(File libDir, List<String> options) {
+        File cdsDir = new File(System.getProperty(CDS_DIR_PROPERTY, "cds"));
+        try {
+            Files.createDirectories(cdsDir.toPath());
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(System.getProperty("java.vm.version", "").getBytes(StandardCharsets.UTF_8));
+            digest.update(String.join(" ", options).getBytes(StandardCharsets.UTF_8));
+            File[] jars = libDir.listFiles((dir, fileName) -> fileName.endsWith(".jar"));
+            if (jars != null) {
+                Arrays.sort(jars);
+                for (File jar : jars) {
+                    digest.update((jar.getName() + ":" + jar.length() + ":" + jar.lastModified()).getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            return new File(cdsDir, "interlok-" + HexFormat.of().formatHex(digest.digest(), 0, 8) + ".jsa");
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static boolean claim(File lock) {
+        try {
+            if (lock.exists() && System.currentTimeMillis() - lock.lastModified() > STALE_LOCK_MILLIS) {
+                lock.delete();
+            }
+            return lock.createNewFile();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * The JVM options for one launch, and what it does with the AppCDS archive.
+     */
+    public static class Launch {
+        private final List<String> jvmOptions;
+        private final CdsState cdsState;
+        private final File archive;
+        private final File lock;
+
+        Launch(List<String> jvmOptions, CdsState cdsState, File archive) {
+            this(jvmOptions, cdsState, archive, null);
+        }
+
+        Launch(List<String> jvmOptions, CdsState cdsState, File archive, File lock) {
+            this.jvmOptions = jvmOptions;
+            this.cdsState = cdsState;
+            this.archive = archive;
+            this.lock = lock;
+        }
+
+        /**
+         * Call when the launched JVM has exited: if it was creating the archive, give up the claim, and discard an
+         * empty archive so that the next launch creates it again.
+         */
+        public void exited() {
+            if (cdsState != CdsState.CREATING) return;
+            if (archive.exists() && archive.length() == 0) archive.delete();
+            lock.delete();
+        }
+
+        public List<String> getJvmOptions() {
+            return jvmOptions;
+        }
+
+        public CdsState getCdsState() {
+            return cdsState;
+        }
+
+        public File getArchive() {
+            return archive;
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package com.adaptris.testing;
+
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * Runs a workload against an adapter in repeated rounds and looks for resources that keep growing.
+ * <p>
+ * After each round the adapter JVM is asked to garbage collect (over JMX), and then the old generation usage after
+ * collection, the live thread count, the open file descriptor count and the loaded class count are read. Once all
+ * the rounds have run, a least squares line is fitted to each metric (ignoring the warm up rounds, which fill caches
+ * and pools) and a metric whose slope is above its threshold is reported as a leak. The rounds are written to
+ * {@code <reports>/leak/<name>.csv}.
+ * </p>
+ * <p>
+ * With {@link #withHeapHistogram(boolean)} a class histogram of the adapter's heap is written after the first
+ * measured round and after the last one ({@code <reports>/leak/<name>-histogram-first.txt} and {@code -last.txt}),
+ * so the classes whose instance counts grew can be found by comparing them.
+ * </p>
+ */
+public class LeakCheck {
+    public enum Metric {
+        OLD_GEN_BYTES("oldGenBytes", 512 * 1024),
+        THREADS("threads", 0.5),
+        OPEN_FILES("openFiles", 0.5),
+        LOADED_CLASSES("loadedClasses", 5);
+
+        private final String key;
+        private final double defaultThreshold;
+
+        Metric(String key, double defaultThreshold) {
+            this.key = key;
+            this.defaultThreshold = defaultThreshold;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * @return the growth per round that is allowed by default.
+         */
+        public double getDefaultThreshold() {
+            return defaultThreshold;
+        }
+    }
+
+    /**
+     * One round of work against the adapter.
+     */
+    @FunctionalInterface
+    public interface Workload {
+        void run(int round) throws Exception;
+    }
+
+    private final Supplier<MBeanServerConnection> connection;
+    private final Workload workload;
+    private String name = "leak-check";
+    private int rounds = 10;
+    private int warmupRounds = 2;
+    private int gcCount = 2;
+    private long gcPauseMillis = 200;
+    private boolean heapHistogram = false;
+    private boolean failOnLeak = true;
+    private final EnumMap<Metric, Double> thresholds = new EnumMap<>(Metric.class);
+
+    /**
+     * @param connection supplies the connection to the adapter JVM, so that a reconnected connector is picked up.
+     */
+    public LeakCheck(Supplier<MBeanServerConnection> connection, Workload workload) {
+        this.connection = connection;
+        this.workload = workload;
+        for (Metric metric : Metric.values()) {
+            thresholds.put(metric, metric.getDefaultThreshold());
+        }
+    }
+
+    public LeakCheck withName(String name) {
+        this.name = name;
+        return this;
+    }
+
+    /**
+     * @param rounds the total number of rounds, including the warm up rounds.
+     */
+    public LeakCheck withRounds(int rounds) {
+        this.rounds = rounds;
+        return this;
+    }
+
+    public LeakCheck withWarmupRounds(int warmupRounds) {
+        this.warmupRounds = warmupRounds;
+        return this;
+    }
+
+    /**
+     * @param gcCount the number of collections to request after each round; more than one lets objects with
+     *                finalizers or cleaners be reclaimed.
+     * @param pauseMillis the pause between them.
+     */
+    public LeakCheck withGc(int gcCount, long pauseMillis) {
+        this.gcCount = gcCount;
+        this.gcPauseMillis = pauseMillis;
+        return this;
+    }
+
+    /**
+     * @param growthPerRound the slope above which the metric is reported as leaking, e.g. bytes per round for
+     *                       {@link Metric#OLD_GEN_BYTES}.
+     */
+    public LeakCheck withThreshold(Metric metric, double growthPerRound) {
+        thresholds.put(metric, growthPerRound);
+        return this;
+    }
+
+    public LeakCheck withHeapHistogram(boolean heapHistogram) {
+        this.heapHistogram = heapHistogram;
+        return this;
+    }
+
+    /**
+     * @param failOnLeak if true (the default) {@link #run()} throws when a leak is found, otherwise the leaks are
+     *                   only reported in the result.
+     */
+    public LeakCheck withFailOnLeak(boolean failOnLeak) {
+        this.failOnLeak = failOnLeak;
+        return this;
+    }
+
+    /**
+     * @throws RuntimeException if a metric grew faster than its threshold and failing on leaks is enabled.
+     */
+    public LeakCheckResult run() throws Exception {
+        if (rounds - warmupRounds < 3) throw new IllegalArgumentException("At least 3 measured rounds are needed to fit a trend");
+        ObjectName oldGen = findOldGenPool(connection.get());
+        List<Map<Metric, Long>> samples = new ArrayList<>();
+        List<File> histograms = new ArrayList<>();
+        for (int round = 0; round < rounds; round++) {
+            workload.run(round);
+            MBeanServerConnection mbeanServer = connection.get();
+            collectGarbage(mbeanServer);
+            if (round < warmupRounds) continue;
+            samples.add(sample(mbeanServer, oldGen));
+            if (heapHistogram && (round == warmupRounds || round == rounds - 1)) {
+                histograms.add(writeHistogram(mbeanServer, round == warmupRounds ? "first" : "last"));
+            }
+        }
+        EnumMap<Metric, Double> slopes = new EnumMap<>(Metric.class);
+        List<String> leaks = new ArrayList<>();
+        for (Metric metric : Metric.values()) {
+            double slope = slope(samples, metric);
+            if (Double.isNaN(slope)) continue;
+            slopes.put(metric, slope);
+            if (slope > thresholds.get(metric)) {
+                leaks.add(String.format("%s grew by %.1f per round (threshold %.1f)", metric.getKey(), slope, thresholds.get(metric)));
+            }
+        }
+        LeakCheckResult result = new LeakCheckResult(name, warmupRounds, samples, slopes, leaks, histograms);
+        write(result);
+        if (failOnLeak && result.hasLeaks()) {
+            throw new RuntimeException("Possible leak in " + name + ": " + String.join(", ", leaks)
+                    + (histograms.isEmpty() ? "" : "; heap histograms in " + histograms.get(0).getParent()));
+        }
+        return result;
+    }
+
+    protected void collectGarbage(MBeanServerConnection mbeanServer) throws Exception {
+        ObjectName memory = new ObjectName("java.lang:type=Memory");
+        for (int i = 0; i < gcCount; i++) {
+            if (i > 0) Thread.sleep(gcPauseMillis);
+            mbeanServer.invoke(memory, "gc", null, null);
+        }
+    }
+
+    protected Map<Metric, Long> sample(MBeanServerConnection mbeanServer, ObjectName oldGen) throws Exception {
+        Map<Metric, Long> sample = new EnumMap<>(Metric.class);
+        CompositeData usage = oldGen != null
+                ? (CompositeData) mbeanServer.getAttribute(oldGen, "CollectionUsage")
+                : (CompositeData) mbeanServer.getAttribute(new ObjectName("java.lang:type=Memory"), "HeapMemoryUsage");
+        if (usage != null) sample.put(Metric.OLD_GEN_BYTES, ((Number) usage.get("used")).longValue());
+        sample.put(Metric.THREADS, ((Number) mbeanServer.getAttribute(new ObjectName("java.lang:type=Threading"), "ThreadCount")).longValue());
+        sample.put(Metric.LOADED_CLASSES, ((Number) mbeanServer.getAttribute(new ObjectName("java.lang:type=ClassLoading"), "LoadedClassCount")).longValue());
+        try {
+            sample.put(Metric.OPEN_FILES, ((Number) mbeanServer.getAttribute(new ObjectName("java.lang:type=OperatingSystem"), "OpenFileDescriptorCount")).longValue());
+        } catch (Exception e) {
+            // not a Unix JVM.
+        }
+        return sample;
+    }
+
+    /**
+     * @return the heap pool holding long lived objects (e.g. "G1 Old Gen" or "Tenured Gen"), or null if there is no
+     * such pool, in which case the whole heap after collection is used.
+     */
+    protected ObjectName findOldGenPool(MBeanServerConnection mbeanServer) throws Exception {
+        for (ObjectName pool : new TreeSet<>(mbeanServer.queryNames(new ObjectName("java.lang:type=MemoryPool,*"), null))) {
+            String poolName = pool.getKeyProperty("name");
+            if (poolName.contains("Old Gen") || poolName.contains("Tenured")) return pool;
+        }
+        return null;
+    }
+
+    protected File writeHistogram(MBeanServerConnection mbeanServer, String suffix) throws Exception {
+        Object histogram = mbeanServer.invoke(new ObjectName("com.sun.management:type=DiagnosticCommand"), "gcClassHistogram",
+                new Object[] {new String[0]}, new String[] {String[].class.getName()});
+        File output = TestReports.reportFile("leak", name + "-histogram-" + suffix + ".txt");
+        Files.write(output.toPath(), String.valueOf(histogram).getBytes(StandardCharsets.UTF_8));
+        return output;
+    }
+
+    /**
+     * @return the least squares slope of the metric against the round number, or NaN if it was not sampled.
+     */
+    static double slope(List<Map<Metric, Long>> samples, Metric metric) {
+        double n = 0, sumX = 0, sumY = 0, sumXY = 0, sumXX = 0;
+        for (int x = 0; x < samples.size(); x++) {
+            Long y = samples.get(x).get(metric);
+            if (y == null) continue;
+            n++;
+            sumX += x;
+            sumY += y;
+            sumXY += (double) x * y;
+            sumXX += (double) x * x;
+        }
+        double denominator = n * sumXX - sumX * sumX;
+        return n < 2 || denominator == 0 ? Double.NaN : (n * sumXY - sumX * sumY) / denominator;
+    }
+
+    private void write(LeakCheckResult result) throws IOException {
+        try (Writer writer = new FileWriter(TestReports.reportFile("leak", name + ".csv"), false)) {
+            StringJoiner header = new StringJoiner(",").add("round");
+            for (Metric metric : Metric.values()) header.add(metric.getKey());
+            writer.write(header + System.lineSeparator());
+            List<Map<Metric, Long>> samples = result.getSamples();
+            for (int i = 0; i < samples.size(); i++) {
+                StringJoiner line = new StringJoiner(",").add(String.valueOf(warmupRounds + i));
+                for (Metric metric : Metric.values()) {
+                    Long value = samples.get(i).get(metric);
+                    line.add(value == null ? "" : String.valueOf(value));
+                }
+                writer.write(line + System.lineSeparator());
+            }
+        }
+    }
+}
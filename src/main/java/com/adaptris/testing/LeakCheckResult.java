@@ -0,0 +1,78 @@
+package com.adaptris.testing;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The outcome of a {@link LeakCheck}: the metrics sampled after each measured round, and the growth per round of
+ * each one.
+ */
+public class LeakCheckResult {
+    private final String name;
+    private final int firstRound;
+    private final List<Map<LeakCheck.Metric, Long>> samples;
+    private final Map<LeakCheck.Metric, Double> slopes;
+    private final List<String> leaks;
+    private final List<File> histograms;
+
+    public LeakCheckResult(String name, int firstRound, List<Map<LeakCheck.Metric, Long>> samples,
+                           Map<LeakCheck.Metric, Double> slopes, List<String> leaks, List<File> histograms) {
+        this.name = name;
+        this.firstRound = firstRound;
+        this.samples = samples;
+        this.slopes = slopes;
+        this.leaks = leaks;
+        this.histograms = histograms;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the round number of the first sample; the rounds before it were warm up rounds.
+     */
+    public int getFirstRound() {
+        return firstRound;
+    }
+
+    /**
+     * @return the metrics read after each measured round; a metric the JVM does not provide is missing.
+     */
+    public List<Map<LeakCheck.Metric, Long>> getSamples() {
+        return samples;
+    }
+
+    /**
+     * @return the fitted growth per round, or NaN if the metric was not sampled.
+     */
+    public double getGrowthPerRound(LeakCheck.Metric metric) {
+        return slopes.getOrDefault(metric, Double.NaN);
+    }
+
+    /**
+     * @return a description of each metric that grew faster than its threshold.
+     */
+    public List<String> getLeaks() {
+        return leaks;
+    }
+
+    public boolean hasLeaks() {
+        return !leaks.isEmpty();
+    }
+
+    /**
+     * @return the heap histograms written, if any: after the first measured round and after the last.
+     */
+    public List<File> getHistograms() {
+        return histograms;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder description = new StringBuilder(name).append(": rounds=").append(samples.size());
+        slopes.forEach((metric, slope) -> description.append(String.format(" %s=%+.1f/round", metric.getKey(), slope)));
+        return description.append(leaks.isEmpty() ? " no leaks" : " LEAKS " + leaks).toString();
+    }
+}
@@ -5,7 +5,6 @@ import org.apache.commons.io.FileUtils;
 
 import java.io.File;
 import java.nio.charset.Charset;
-import java.nio.file.Paths;
 import java.time.LocalDate;
 import java.util.Map;
 import java.util.Properties;
@@ -15,10 +14,10 @@ public class LicensedSingleAdapterFunctionalTest extends SingleAdapterFunctional
     @Override
     protected void customiseBootstrapProperties(Properties props) {
         super.customiseBootstrapProperties(props);
-        System.setProperty("adp.license.location", "config/license.properties");
+        File licenseFile = getConfigFile("license.properties");
+        System.setProperty("adp.license.location", licenseFile.getPath());
         try {
             String license = generateLicense("Enterprise");
-            File licenseFile = Paths.get("config/license.properties").toFile();
             if (licenseFile.exists()) {
                 licenseFile.delete();
             }
@@ -28,6 +27,15 @@ public class LicensedSingleAdapterFunctionalTest extends SingleAdapterFunctional
         }
     }
 
+    /**
+     * Licensed adapters are not shared with unlicensed ones.
+     */
+    @Override
+    protected void fingerprintBootstrapProperties(Properties props) {
+        super.fingerprintBootstrapProperties(props);
+        props.setProperty("adp.license.location", getConfigFile("license.properties").getPath());
+    }
+
     public String generateLicense(String type) throws Exception {
         Map<String, Object> config = Map.of("expiryDate", LocalDate.now().plusDays(1), "type", type);
         return LicenseCreatorFactory.getCreator(config).create();
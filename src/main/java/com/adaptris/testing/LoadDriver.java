@@ -0,0 +1,330 @@
+package com.adaptris.testing;
+
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.util.Timeout;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+import java.util.function.IntPredicate;
+import java.util.function.Supplier;
+
+/**
+ * Drives HTTP load at an adapter using the async httpclient5 client.
+ * <p>
+ * In closed loop mode ({@link #withConcurrency(int)}) each of N users sends a request as soon as its previous one
+ * completes, or on a fixed schedule if {@link #withPacing(Duration)} is set. In open loop mode
+ * ({@link #withArrivalRate(double)}) requests are sent on a fixed schedule whether or not earlier ones have
+ * completed. Latencies are measured from when each request was <em>meant</em> to be sent, so a stalled server is
+ * not hidden by the load generator backing off (coordinated omission). Requests started during the warmup are not
+ * measured.
+ * </p>
+ * <pre>{@code
+ * LoadResult result = new LoadDriver().withGet(getBaseAdapterUrl() + "/api/orders")
+ *     .withConcurrency(16).withWarmup(Duration.ofSeconds(5)).withDuration(Duration.ofSeconds(30)).run();
+ * assertTrue(result.getP99().toMillis() < 250, result.toString());
+ * }</pre>
+ */
+public class LoadDriver {
+    protected Supplier<SimpleHttpRequest> requestFactory;
+    protected int concurrency = 1;
+    protected double arrivalRate = 0;
+    protected Duration pacing = Duration.ZERO;
+    protected Duration warmup = Duration.ZERO;
+    protected Duration duration = Duration.ofSeconds(10);
+    protected Duration responseTimeout = Duration.ofSeconds(30);
+    protected int maxConnections = 0;
+    protected int maxOutstanding = 10000;
+    protected IntPredicate expectedStatus = status -> status >= 200 && status < 400;
+    protected EndpointBalancer balancer;
+    protected Function<String, SimpleHttpRequest> balancedRequestFactory;
+    private volatile Run current;
+
+    public LoadDriver withRequest(Supplier<SimpleHttpRequest> requestFactory) {
+        this.requestFactory = requestFactory;
+        return this;
+    }
+
+    public LoadDriver withGet(String uri) {
+        URI requestUri = URI.create(uri);
+        return withRequest(() -> new SimpleHttpRequest("GET", requestUri));
+    }
+
+    public LoadDriver withPost(String uri, byte[] body, ContentType contentType) {
+        URI requestUri = URI.create(uri);
+        return withRequest(() -> {
+            SimpleHttpRequest request = new SimpleHttpRequest("POST", requestUri);
+            request.setBody(body, contentType);
+            return request;
+        });
+    }
+
+    /**
+     * Closed loop mode with the given number of concurrent users.
+     */
+    public LoadDriver withConcurrency(int users) {
+        this.concurrency = Math.max(1, users);
+        this.arrivalRate = 0;
+        return this;
+    }
+
+    /**
+     * Spread the requests across the balancer's endpoints instead of sending them all to one URI.
+     *
+     * @param requestFactory creates a request for the given endpoint base URL.
+     */
+    public LoadDriver withBalancer(EndpointBalancer balancer, Function<String, SimpleHttpRequest> requestFactory) {
+        this.balancer = balancer;
+        this.balancedRequestFactory = requestFactory;
+        return this;
+    }
+
+    /**
+     * Open loop mode with requests arriving at a fixed rate per second.
+     */
+    public LoadDriver withArrivalRate(double requestsPerSecond) {
+        this.arrivalRate = requestsPerSecond;
+        return this;
+    }
+
+    /**
+     * In closed loop mode, each user aims to send one request per interval rather than immediately after the last
+     * response; latency is then measured from the intended send time.
+     */
+    public LoadDriver withPacing(Duration pacing) {
+        this.pacing = pacing;
+        return this;
+    }
+
+    public LoadDriver withWarmup(Duration warmup) {
+        this.warmup = warmup;
+        return this;
+    }
+
+    public LoadDriver withDuration(Duration duration) {
+        this.duration = duration;
+        return this;
+    }
+
+    public LoadDriver withResponseTimeout(Duration responseTimeout) {
+        this.responseTimeout = responseTimeout;
+        return this;
+    }
+
+    public LoadDriver withMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+        return this;
+    }
+
+    /**
+     * In open loop mode, requests are rejected (and counted) rather than sent when this many are already outstanding.
+     */
+    public LoadDriver withMaxOutstanding(int maxOutstanding) {
+        this.maxOutstanding = maxOutstanding;
+        return this;
+    }
+
+    public LoadDriver withExpectedStatus(IntPredicate expectedStatus) {
+        this.expectedStatus = expectedStatus;
+        return this;
+    }
+
+    public boolean isOpenLoop() {
+        return arrivalRate > 0;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public double getArrivalRate() {
+        return arrivalRate;
+    }
+
+    public EndpointBalancer getBalancer() {
+        return balancer;
+    }
+
+    public Function<String, SimpleHttpRequest> getBalancedRequestFactory() {
+        return balancedRequestFactory;
+    }
+
+    public LoadResult run() throws Exception {
+        if (requestFactory == null && balancer == null) throw new IllegalStateException("No request configured");
+        int connections = maxConnections > 0 ? maxConnections : (isOpenLoop() ? 100 : concurrency);
+        try (CloseableHttpAsyncClient httpClient = HttpAsyncClients.custom()
+                .setConnectionManager(PoolingAsyncClientConnectionManagerBuilder.create()
+                        .setMaxConnTotal(connections).setMaxConnPerRoute(connections).build())
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setResponseTimeout(Timeout.ofMilliseconds(responseTimeout.toMillis())).build())
+                .build()) {
+            httpClient.start();
+            Run run = new Run(httpClient);
+            current = run;
+            try {
+                run.execute();
+            } finally {
+                current = null;
+            }
+            httpClient.close(CloseMode.IMMEDIATE);
+            return run.result();
+        }
+    }
+
+    /**
+     * End a run in progress now rather than when its duration is up, e.g. to run background load for as long as a
+     * test scenario takes; the result covers the requests sent before this was called.
+     */
+    public void stop() {
+        Run run = current;
+        if (run != null) run.endNanos = Math.min(run.endNanos, System.nanoTime());
+    }
+
+    private class Run {
+        private final CloseableHttpAsyncClient httpClient;
+        private final LatencyHistogram histogram = new LatencyHistogram();
+        private final AtomicLong completed = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+        private final AtomicLong outstanding = new AtomicLong();
+        /**
+         * Measured requests still in flight; {@link #drain()} counts what is left as failures and makes it negative,
+         * so that callbacks arriving later (e.g. the cancellations when the client is closed) are not counted again.
+         */
+        private final AtomicLong measuredInFlight = new AtomicLong();
+        private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "load-driver-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        private long startNanos;
+        private long measureFromNanos;
+        private volatile long endNanos;
+
+        private Run(CloseableHttpAsyncClient httpClient) {
+            this.httpClient = httpClient;
+        }
+
+        private void execute() throws InterruptedException {
+            startNanos = System.nanoTime();
+            measureFromNanos = startNanos + warmup.toNanos();
+            endNanos = measureFromNanos + duration.toNanos();
+            try {
+                if (isOpenLoop()) {
+                    openLoop();
+                } else {
+                    for (int i = 0; i < concurrency; i++) {
+                        send(startNanos);
+                    }
+                    long remaining;
+                    while ((remaining = endNanos - System.nanoTime()) > 0) {
+                        LockSupport.parkNanos(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(10)));
+                    }
+                }
+                drain();
+            } finally {
+                scheduler.shutdownNow();
+            }
+        }
+
+        private void openLoop() {
+            long interval = (long) (1_000_000_000L / arrivalRate);
+            for (long intended = startNanos; intended < endNanos; intended += interval) {
+                long wait;
+                while ((wait = intended - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                if (outstanding.get() >= maxOutstanding) {
+                    if (intended >= measureFromNanos) rejected.incrementAndGet();
+                    continue;
+                }
+                send(intended);
+            }
+        }
+
+        private void drain() throws InterruptedException {
+            long drainUntil = System.nanoTime() + responseTimeout.toNanos();
+            while (measuredInFlight.get() > 0 && System.nanoTime() < drainUntil) {
+                Thread.sleep(1);
+            }
+            failures.addAndGet(Math.max(0, measuredInFlight.getAndSet(Long.MIN_VALUE / 2)));
+        }
+
+        private void send(long intendedNanos) {
+            outstanding.incrementAndGet();
+            if (isMeasured(intendedNanos)) measuredInFlight.incrementAndGet();
+            EndpointBalancer.Endpoint endpoint = balancer == null ? null : balancer.acquire();
+            SimpleHttpRequest request = endpoint == null ? requestFactory.get() : balancedRequestFactory.apply(endpoint.getBaseUrl());
+            httpClient.execute(request, new FutureCallback<SimpleHttpResponse>() {
+                @Override
+                public void completed(SimpleHttpResponse response) {
+                    if (endpoint != null) endpoint.release();
+                    if (settle(intendedNanos)) {
+                        histogram.recordValue((System.nanoTime() - intendedNanos) / 1000);
+                        completed.incrementAndGet();
+                        if (!expectedStatus.test(response.getCode())) errors.incrementAndGet();
+                    }
+                    next(intendedNanos);
+                }
+
+                @Override
+                public void failed(Exception ex) {
+                    if (endpoint != null) endpoint.release();
+                    if (settle(intendedNanos)) failures.incrementAndGet();
+                    next(intendedNanos);
+                }
+
+                @Override
+                public void cancelled() {
+                    failed(null);
+                }
+            });
+        }
+
+        private boolean isMeasured(long intendedNanos) {
+            return intendedNanos >= measureFromNanos && intendedNanos < endNanos;
+        }
+
+        /**
+         * @return true if the request is measured and was not already counted by {@link #drain()}.
+         */
+        private boolean settle(long intendedNanos) {
+            return isMeasured(intendedNanos) && measuredInFlight.getAndDecrement() > 0;
+        }
+
+        private void next(long previousIntendedNanos) {
+            outstanding.decrementAndGet();
+            if (isOpenLoop()) return;
+            long now = System.nanoTime();
+            long intended = pacing.isZero() ? now : previousIntendedNanos + pacing.toNanos();
+            if (intended >= endNanos || now >= endNanos) return;
+            if (intended > now) {
+                outstanding.incrementAndGet();
+                scheduler.schedule(() -> {
+                    outstanding.decrementAndGet();
+                    send(intended);
+                }, intended - now, TimeUnit.NANOSECONDS);
+            } else {
+                send(intended);
+            }
+        }
+
+        private LoadResult result() {
+            return new LoadResult(histogram, Duration.ofNanos(Math.max(0, endNanos - measureFromNanos)), completed.get(), errors.get(), failures.get(), rejected.get());
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.adaptris.testing;
+
+import java.time.Duration;
+
+/**
+ * The outcome of a {@link LoadDriver} run, covering the measurement phase only.
+ */
+public class LoadResult {
+    private final LatencyHistogram histogram;
+    private final Duration measured;
+    private final long completed;
+    private final long errors;
+    private final long failures;
+    private final long rejected;
+
+    public LoadResult(LatencyHistogram histogram, Duration measured, long completed, long errors, long failures, long rejected) {
+        this.histogram = histogram;
+        this.measured = measured;
+        this.completed = completed;
+        this.errors = errors;
+        this.failures = failures;
+        this.rejected = rejected;
+    }
+
+    /**
+     * @return the latency histogram in microseconds, measured from when each request was meant to be sent.
+     */
+    public LatencyHistogram getHistogram() {
+        return histogram;
+    }
+
+    public Duration getMeasured() {
+        return measured;
+    }
+
+    /**
+     * @return successful responses per second.
+     */
+    public double getThroughput() {
+        double seconds = measured.toNanos() / 1_000_000_000.0;
+        return seconds <= 0 ? 0 : (completed - errors) / seconds;
+    }
+
+    public Duration getLatency(double percentile) {
+        return Duration.ofNanos(histogram.getValueAtPercentile(percentile) * 1000);
+    }
+
+    public Duration getP50() {
+        return getLatency(50.0);
+    }
+
+    public Duration getP99() {
+        return getLatency(99.0);
+    }
+
+    public Duration getP999() {
+        return getLatency(99.9);
+    }
+
+    /**
+     * @return the number of requests that got a response, whether or not it was an error.
+     */
+    public long getCompleted() {
+        return completed;
+    }
+
+    /**
+     * @return the number of responses with an unexpected status code.
+     */
+    public long getErrors() {
+        return errors;
+    }
+
+    /**
+     * @return the number of requests that failed without a response (connection errors, timeouts).
+     */
+    public long getFailures() {
+        return failures;
+    }
+
+    /**
+     * @return the number of open loop requests not sent because too many were already outstanding.
+     */
+    public long getRejected() {
+        return rejected;
+    }
+
+    public long getTotalErrors() {
+        return errors + failures + rejected;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("throughput=%.1f/s p50=%dus p99=%dus p999=%dus max=%dus completed=%d errors=%d failures=%d rejected=%d",
+                getThroughput(), histogram.getValueAtPercentile(50.0), histogram.getValueAtPercentile(99.0),
+                histogram.getValueAtPercentile(99.9), histogram.getMax(), completed, errors, failures, rejected);
+    }
+}
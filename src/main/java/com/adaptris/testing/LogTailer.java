@@ -0,0 +1,300 @@
+package com.adaptris.testing;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Follows a log file as it is written, e.g. the {@code adapter.log.<position>} of a forked adapter.
+ * <p>
+ * New bytes are read incrementally with a {@link FileChannel} on a background thread, which polls with a
+ * {@link Backoff} (from 1ms up to the poll interval) while the file is idle. The most recent lines are kept in a
+ * bounded ring buffer, and lines longer than {@link #MAX_LINE_LENGTH} are truncated, so memory use does not grow
+ * with the log. Waiters and counters registered with {@link #awaitLogMatch(Pattern, Duration)} and
+ * {@link #countMatches(Pattern)} are resolved as each line is read. If the file is truncated (e.g. the adapter is
+ * relaunched) it is followed from the start again.
+ * </p>
+ */
+public class LogTailer implements AutoCloseable {
+    public static final int DEFAULT_CAPACITY = 1000;
+    public static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    private final Path file;
+    private final int capacity;
+    private final long pollMillis;
+
+    private final ArrayDeque<String> recentLines = new ArrayDeque<>();
+    private final List<Waiter> waiters = new ArrayList<>();
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private final AtomicLong lineCount = new AtomicLong();
+    private final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+    private byte[] partialLine = new byte[0];
+    private FileChannel channel;
+    private long position = 0;
+
+    private volatile boolean running = false;
+    private Thread thread;
+
+    public LogTailer(Path file) {
+        this(file, DEFAULT_CAPACITY, 50);
+    }
+
+    /**
+     * @param file the file to follow; it does not have to exist yet.
+     * @param capacity the number of recent lines to keep.
+     * @param pollMillis the longest time between checks for new data.
+     */
+    public LogTailer(Path file, int capacity, long pollMillis) {
+        this.file = file;
+        this.capacity = Math.max(1, capacity);
+        this.pollMillis = Math.max(1, pollMillis);
+    }
+
+    public synchronized LogTailer start() {
+        if (running) return this;
+        running = true;
+        thread = new Thread(this::follow, "log-tailer-" + file.getFileName());
+        thread.setDaemon(true);
+        thread.start();
+        return this;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        Thread toJoin = thread;
+        if (toJoin != null) {
+            toJoin.interrupt();
+            try {
+                toJoin.join(pollMillis * 2);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            for (Waiter waiter : waiters) {
+                waiter.future.cancel(false);
+            }
+            waiters.clear();
+        }
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * @return the lines read so far, including those no longer in the ring buffer.
+     */
+    public long getLineCount() {
+        return lineCount.get();
+    }
+
+    /**
+     * @return the most recent lines, oldest first.
+     */
+    public synchronized List<String> getRecentLines() {
+        return new ArrayList<>(recentLines);
+    }
+
+    /**
+     * Wait for a line matching the pattern; lines still in the ring buffer count, so a line written just before
+     * this is called is not missed.
+     *
+     * @return the matching line.
+     * @throws TimeoutException if no line matches within the timeout.
+     */
+    public String awaitLogMatch(Pattern pattern, Duration timeout) throws TimeoutException, InterruptedException {
+        CompletableFuture<String> future;
+        synchronized (this) {
+            for (String line : recentLines) {
+                if (pattern.matcher(line).find()) return line;
+            }
+            future = new CompletableFuture<>();
+            waiters.add(new Waiter(pattern, future));
+        }
+        try {
+            return future.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | CancellationException e) {
+            throw new IllegalStateException("Tailer for " + file + " closed", e);
+        } catch (TimeoutException e) {
+            synchronized (this) {
+                waiters.removeIf(waiter -> waiter.future == future);
+            }
+            throw new TimeoutException("No line matching [" + pattern + "] in " + file + " within " + timeout.toMillis() + "ms");
+        }
+    }
+
+    /**
+     * Count the lines matching the pattern from now on (or from the start of the file, if called before
+     * {@link #start()}).
+     *
+     * @return the counter, which can also be waited on.
+     */
+    public Counter countMatches(Pattern pattern) {
+        return counters.computeIfAbsent(pattern.pattern() + "/" + pattern.flags(), key -> new Counter(pattern));
+    }
+
+    private void follow() {
+        Backoff backoff = new Backoff(1, pollMillis, 2.0);
+        while (running) {
+            try {
+                if (readAvailable()) {
+                    backoff.reset();
+                } else {
+                    Thread.sleep(backoff.nextDelay());
+                }
+            } catch (InterruptedException e) {
+                break;
+            } catch (IOException e) {
+                // the file may be in the middle of being recreated; reopen it and try again later.
+                closeChannel();
+                try {
+                    Thread.sleep(backoff.nextDelay());
+                } catch (InterruptedException ie) {
+                    break;
+                }
+            }
+        }
+        closeChannel();
+    }
+
+    private void closeChannel() {
+        try {
+            if (channel != null) channel.close();
+        } catch (IOException e) {
+            // nothing more to do.
+        }
+        channel = null;
+    }
+
+    private boolean readAvailable() throws IOException {
+        if (channel == null) {
+            if (!Files.exists(file)) return false;
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+        }
+        long size = channel.size();
+        if (size < position) {
+            position = 0;
+            partialLine = new byte[0];
+        }
+        if (size == position) return false;
+        channel.position(position);
+        int read;
+        while ((read = channel.read(buffer)) > 0) {
+            position += read;
+            buffer.flip();
+            consume(buffer);
+            buffer.clear();
+        }
+        return true;
+    }
+
+    private void consume(ByteBuffer bytes) {
+        int start = bytes.position();
+        for (int i = bytes.position(); i < bytes.limit(); i++) {
+            if (bytes.get(i) == '\n') {
+                byte[] line = appendPartial(bytes, start, i);
+                partialLine = new byte[0];
+                int length = line.length > 0 && line[line.length - 1] == '\r' ? line.length - 1 : line.length;
+                onLine(new String(line, 0, length, StandardCharsets.UTF_8));
+                start = i + 1;
+            }
+        }
+        if (start < bytes.limit()) {
+            partialLine = appendPartial(bytes, start, bytes.limit());
+        }
+    }
+
+    private byte[] appendPartial(ByteBuffer bytes, int from, int to) {
+        int length = Math.min(to - from, Math.max(0, MAX_LINE_LENGTH - partialLine.length));
+        byte[] line = Arrays.copyOf(partialLine, partialLine.length + length);
+        for (int i = 0; i < length; i++) {
+            line[partialLine.length + i] = bytes.get(from + i);
+        }
+        return line;
+    }
+
+    private void onLine(String line) {
+        lineCount.incrementAndGet();
+        for (Counter counter : counters.values()) {
+            counter.accept(line);
+        }
+        synchronized (this) {
+            if (recentLines.size() >= capacity) recentLines.removeFirst();
+            recentLines.addLast(line);
+            Iterator<Waiter> iterator = waiters.iterator();
+            while (iterator.hasNext()) {
+                Waiter waiter = iterator.next();
+                if (waiter.pattern.matcher(line).find()) {
+                    waiter.future.complete(line);
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    private static class Waiter {
+        private final Pattern pattern;
+        private final CompletableFuture<String> future;
+
+        private Waiter(Pattern pattern, CompletableFuture<String> future) {
+            this.pattern = pattern;
+            this.future = future;
+        }
+    }
+
+    /**
+     * The number of lines matching a pattern.
+     */
+    public static class Counter {
+        private final Pattern pattern;
+        private long count = 0;
+
+        private Counter(Pattern pattern) {
+            this.pattern = pattern;
+        }
+
+        private synchronized void accept(String line) {
+            if (pattern.matcher(line).find()) {
+                count++;
+                notifyAll();
+            }
+        }
+
+        public synchronized long get() {
+            return count;
+        }
+
+        /**
+         * Wait until at least {@code expected} lines have matched.
+         *
+         * @throws TimeoutException if fewer have matched when the timeout expires.
+         */
+        public synchronized long await(long expected, Duration timeout) throws TimeoutException, InterruptedException {
+            long deadline = System.currentTimeMillis() + timeout.toMillis();
+            long remaining;
+            while (count < expected) {
+                if ((remaining = deadline - System.currentTimeMillis()) <= 0) {
+                    throw new TimeoutException(count + " of " + expected + " lines matching [" + pattern + "] within " + timeout.toMillis() + "ms");
+                }
+                wait(remaining);
+            }
+            return count;
+        }
+    }
+}
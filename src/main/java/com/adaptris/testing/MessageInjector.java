@@ -0,0 +1,221 @@
+package com.adaptris.testing;
+
+import com.adaptris.core.SerializableAdaptrisMessage;
+import com.adaptris.core.runtime.WorkflowManagerMBean;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+import java.util.function.Predicate;
+
+/**
+ * Sends messages straight into a workflow over JMX, bypassing its consumer, to measure the workflow's service chain
+ * without the cost of a transport.
+ * <p>
+ * With replies (the default) each message is sent with {@code injectMessageWithReply}, which returns when the
+ * workflow has processed it, so the latency is that of the service chain (plus a JMX round trip). Without replies
+ * {@code injectMessage} only hands the message to the workflow, which measures how fast it accepts work.
+ * </p>
+ * <p>
+ * Messages are pipelined: up to {@link #withPipelining(int)} injections are in flight at once. With
+ * {@link #withBatchSize(int)} they are sent in batches instead, each batch completing before the next starts. Each
+ * run appends a line to {@code <reports>/inject/summary.csv}.
+ * </p>
+ */
+public class MessageInjector {
+    private static final String SUMMARY_HEADER = "timestamp,name,messages,errors,elapsedMs,messagesPerSecond,p50us,p99us,maxUs";
+
+    private final WorkflowManagerMBean workflow;
+    private final String name;
+    private int messages = 1000;
+    private int warmupMessages = 0;
+    private int pipelining = 1;
+    private int batchSize = 0;
+    private boolean withReply = true;
+    private IntFunction<String> payload = i -> "<message id=\"" + i + "\"/>";
+    private IntFunction<Map<String, String>> headers = i -> Map.of();
+    private Predicate<SerializableAdaptrisMessage> replyCheck = reply -> true;
+    private int replyCaptureLimit = 100;
+
+    /**
+     * @param name the name to report the results under, e.g. the workflow's ObjectName.
+     */
+    public MessageInjector(WorkflowManagerMBean workflow, String name) {
+        this.workflow = workflow;
+        this.name = name;
+    }
+
+    public MessageInjector withMessages(int messages) {
+        this.messages = messages;
+        return this;
+    }
+
+    /**
+     * @param warmupMessages messages to send, and not measure, before the measured ones.
+     */
+    public MessageInjector withWarmup(int warmupMessages) {
+        this.warmupMessages = warmupMessages;
+        return this;
+    }
+
+    /**
+     * @param depth the number of injections in flight at once.
+     */
+    public MessageInjector withPipelining(int depth) {
+        this.pipelining = Math.max(1, depth);
+        return this;
+    }
+
+    /**
+     * @param batchSize send the messages in batches of this size, waiting for each batch to complete before sending
+     *                  the next; 0 (the default) to keep the pipeline full.
+     */
+    public MessageInjector withBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    public MessageInjector withReply(boolean withReply) {
+        this.withReply = withReply;
+        return this;
+    }
+
+    /**
+     * @param payload the payload of the n'th message.
+     */
+    public MessageInjector withPayload(IntFunction<String> payload) {
+        this.payload = payload;
+        return this;
+    }
+
+    /**
+     * @param headers the metadata of the n'th message.
+     */
+    public MessageInjector withHeaders(IntFunction<Map<String, String>> headers) {
+        this.headers = headers;
+        return this;
+    }
+
+    /**
+     * @param replyCheck returns false for a reply that should count as an error, e.g. one with an error header.
+     */
+    public MessageInjector withReplyCheck(Predicate<SerializableAdaptrisMessage> replyCheck) {
+        this.replyCheck = replyCheck;
+        return this;
+    }
+
+    /**
+     * @param limit the number of replies, and of errors, to keep in the result.
+     */
+    public MessageInjector withReplyCapture(int limit) {
+        this.replyCaptureLimit = limit;
+        return this;
+    }
+
+    public InjectionResult run() throws Exception {
+        AtomicInteger threadCtr = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(pipelining, r -> {
+            Thread thread = new Thread(r, "message-injector-" + threadCtr.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            send(executor, 0, warmupMessages, null);
+            Run run = new Run();
+            long start = System.nanoTime();
+            send(executor, warmupMessages, warmupMessages + messages, run);
+            InjectionResult result = new InjectionResult(name, messages, run.errors.get(), Duration.ofNanos(System.nanoTime() - start),
+                    run.histogram, new ArrayList<>(run.replies), new ArrayList<>(run.errorSamples));
+            appendSummary(result);
+            return result;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void send(ExecutorService executor, int from, int to, Run run) throws Exception {
+        int step = batchSize > 0 ? batchSize : to - from;
+        for (int batchStart = from; batchStart < to; batchStart += Math.max(1, step)) {
+            int batchEnd = Math.min(to, batchStart + Math.max(1, step));
+            AtomicInteger next = new AtomicInteger(batchStart);
+            List<Future<?>> senders = new ArrayList<>();
+            for (int i = 0; i < pipelining; i++) {
+                senders.add(executor.submit(() -> {
+                    int index;
+                    while ((index = next.getAndIncrement()) < batchEnd) {
+                        inject(index, run);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> sender : senders) {
+                sender.get();
+            }
+        }
+    }
+
+    private void inject(int index, Run run) {
+        SerializableAdaptrisMessage message = new SerializableAdaptrisMessage(UUID.randomUUID().toString(), payload.apply(index));
+        headers.apply(index).forEach(message::addMessageHeader);
+        long begin = System.nanoTime();
+        try {
+            if (withReply) {
+                SerializableAdaptrisMessage reply = workflow.injectMessageWithReply(message);
+                if (run == null) return;
+                run.histogram.recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - begin));
+                if (reply == null || !replyCheck.test(reply)) {
+                    run.error("Message " + index + " rejected by the reply check");
+                } else {
+                    run.reply(reply);
+                }
+            } else {
+                boolean accepted = workflow.injectMessage(message);
+                if (run == null) return;
+                run.histogram.recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - begin));
+                if (!accepted) run.error("Message " + index + " not accepted by the workflow");
+            }
+        } catch (Exception e) {
+            if (run != null) run.error("Message " + index + ": " + e);
+        }
+    }
+
+    private static synchronized void appendSummary(InjectionResult result) throws IOException {
+        File summary = TestReports.reportFile("inject", "summary.csv");
+        boolean exists = summary.exists();
+        try (Writer writer = new FileWriter(summary, true)) {
+            if (!exists) writer.write(SUMMARY_HEADER + System.lineSeparator());
+            LatencyHistogram histogram = result.getHistogram();
+            writer.write(String.join(",", String.valueOf(System.currentTimeMillis()), "\"" + result.getName().replace("\"", "\"\"") + "\"",
+                    String.valueOf(result.getMessages()), String.valueOf(result.getErrors()),
+                    String.valueOf(result.getElapsed().toMillis()), String.format("%.1f", result.getMessagesPerSecond()),
+                    String.valueOf(histogram.getValueAtPercentile(50.0)), String.valueOf(histogram.getValueAtPercentile(99.0)),
+                    String.valueOf(histogram.getMax())) + System.lineSeparator());
+        }
+    }
+
+    private class Run {
+        private final LatencyHistogram histogram = new LatencyHistogram();
+        private final AtomicLong errors = new AtomicLong();
+        private final List<SerializableAdaptrisMessage> replies = Collections.synchronizedList(new ArrayList<>());
+        private final List<String> errorSamples = Collections.synchronizedList(new ArrayList<>());
+
+        private void reply(SerializableAdaptrisMessage reply) {
+            if (replies.size() < replyCaptureLimit) replies.add(reply);
+        }
+
+        private void error(String description) {
+            errors.incrementAndGet();
+            if (errorSamples.size() < replyCaptureLimit) errorSamples.add(description);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.adaptris.testing;
 
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
 import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
 import org.apache.hc.client5.http.impl.classic.HttpClients;
 import org.junit.jupiter.api.AfterAll;
@@ -8,15 +9,19 @@ import org.junit.jupiter.api.TestInstance;
 
 import java.io.*;
 import java.net.ServerSocket;
+import java.net.URI;
 import java.nio.file.*;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
-import java.util.concurrent.Callable;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 /**
  * This class starts up and waits for the adapter to be available based on configuration files
@@ -25,68 +30,255 @@ import java.util.function.Consumer;
  */
 @TestInstance(TestInstance.Lifecycle.PER_CLASS)
 public abstract class MultiAdapterFunctionalTest extends AbstractAdapterFunctionalTest {
-    protected WatchService watchService;
+    protected FileEventDispatcher fileEvents;
     protected CloseableHttpClient client = HttpClients.createDefault();
 
     protected int adapterStartWaitTime = 1000;
     protected int adapterStartMaxWaitTime = 10000;
     protected int adapterCloseMaxWaitTime = 10000;
+    protected boolean concurrentLaunch = true;
+    /**
+     * If false, the adapters' configuration is written during setup but they are not launched; e.g. so that a
+     * {@link FailoverScenario} can launch them itself.
+     */
+    protected boolean launchOnSetup = true;
+    /**
+     * If greater than zero, sample each adapter's JVM and workflow metrics at this interval (ms) while the tests run;
+     * see {@link AdapterInstance#startMetricsSampler(long, String)}.
+     */
+    protected long metricsSampleInterval = 0;
+    /**
+     * Give each adapter its own copy of its configuration directory and fork specific ports, so that test classes
+     * can run in parallel; on by default when the functionalTest task runs with more than one fork.
+     */
+    protected boolean useSandbox = ConfigSandbox.isEnabled();
+    /**
+     * Launch each adapter in this JVM in its own class loader rather than sharing the test's copy of Interlok; on
+     * when {@link IsolatedAdapterHost#ISOLATED_PROPERTY} is true.
+     */
+    protected boolean isolatedLaunch = IsolatedAdapterHost.isEnabled();
 
     public abstract List<File> getBootstrapFiles();
 
     protected List<AdapterInstance> instances = new ArrayList<>();
     protected List<Object> locks = new LinkedList<>();
+    protected SharedAdapterPool adapterPool;
+    private long classStartNanos;
+    protected Map<String, DegradedBackend> backends = new LinkedHashMap<>();
+
+    /**
+     * Set by {@link SharedAdapterPoolExtension}; when set adapters are leased from the pool instead of being
+     * started and shut down by this class.
+     */
+    public void setAdapterPool(SharedAdapterPool adapterPool) {
+        this.adapterPool = adapterPool;
+    }
 
     @BeforeAll
     public void setup() throws Exception {
-        watchService = FileSystems.getDefault().newWatchService();
+        classStartNanos = System.nanoTime();
+        for (DegradedBackend backend : backends.values()) {
+            backend.start();
+        }
         AtomicInteger ctr = new AtomicInteger();
         getBootstrapFiles().forEach(file -> {
             AdapterInstance instance = new AdapterInstance(file);
             instance.setPosition(ctr.getAndIncrement());
+            instance.withStartupTimings(new StartupTimings(getClass().getName() + "-adapter-" + instance.getPosition()));
+            if (useSandbox) {
+                try {
+                    instance.withSandbox(ConfigSandbox.create(file.getAbsoluteFile().getParentFile(), getClass().getName() + "/" + instance.getPosition()));
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
             instances.add(instance);
-            try {
-                new Thread(() -> {
-                    try {
-                        synchronized (ctr) {
-                            withReservedSocket(serverSocket -> {
-                                try {
-                                    setupAdapter(instance, serverSocket, false);
-                                } catch (Exception e) {
-                                    throw new RuntimeException(e);
-                                }
-                            }, () -> {
-                                launchAdapter(instance);
-                                return null;
-                            });
-                        }
-                    } catch (Exception e) {
-                        throw new RuntimeException(e);
+        });
+        if (!launchOnSetup) {
+            configureOnly();
+        } else if (adapterPool != null) {
+            leaseAdapters();
+        } else if (concurrentLaunch) {
+            launchConcurrently();
+        } else {
+            launchSequentially();
+        }
+        if (metricsSampleInterval > 0) {
+            for (AdapterInstance instance : instances) {
+                instance.startMetricsSampler(metricsSampleInterval, getClass().getName());
+            }
+        }
+    }
+
+    /**
+     * Launch each adapter in turn, waiting for each one to start (within its own {@link #adapterStartMaxWaitTime})
+     * before launching the next.
+     */
+    protected void launchSequentially() throws Exception {
+        for (AdapterInstance instance : instances) {
+            withReservedSocket(serverSocket -> {
+                try {
+                    setupAdapter(instance, serverSocket, false);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }, () -> launchAdapter(instance));
+            instance.waitForStarted(adapterStartWaitTime, adapterStartMaxWaitTime);
+        }
+    }
+
+    /**
+     * Launch all the adapters at once and wait for all of them to start within a single
+     * {@link #adapterStartMaxWaitTime}.
+     * <p>
+     * The server ports for every adapter are reserved together, so that each adapter is guaranteed a
+     * distinct port before any of them are launched.
+     * </p>
+     */
+    protected void launchConcurrently() throws Exception {
+        withReservedSockets(instances.size(), serverSockets -> {
+            for (int i = 0; i < instances.size(); i++) {
+                try {
+                    setupAdapter(instances.get(i), serverSockets.get(i), false);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        startConcurrently(instances);
+    }
+
+    /**
+     * Write every adapter's configuration, each with its own reserved port, without launching any of them.
+     */
+    protected void configureOnly() throws Exception {
+        withReservedSockets(instances.size(), serverSockets -> {
+            for (int i = 0; i < instances.size(); i++) {
+                try {
+                    setupAdapter(instances.get(i), serverSockets.get(i), false);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return a scenario that fails over between this class's adapters; set {@link #launchOnSetup} to false so that
+     * the scenario launches them, as forked processes with {@code --failover}.
+     */
+    protected FailoverScenario failoverScenario() {
+        return new FailoverScenario(instances).withName(getClass().getName());
+    }
+
+    /**
+     * Lease adapters with the same configuration from the {@link SharedAdapterPool}, and start (concurrently)
+     * and add to the pool any that are not already running.
+     */
+    protected void leaseAdapters() throws Exception {
+        List<AdapterInstance> toStart = new ArrayList<>();
+        withReservedSockets(instances.size(), serverSockets -> {
+            for (int i = 0; i < instances.size(); i++) {
+                try {
+                    AdapterInstance instance = instances.get(i);
+                    configureAdapter(instance, serverSockets.get(i).getLocalPort(), false);
+                    AdapterInstance pooled = adapterPool.acquire(instance.fingerprint());
+                    if (pooled != null) {
+                        instances.set(i, pooled);
+                    } else {
+                        toStart.add(instance);
                     }
-                }).run();
-            } catch (Exception e) {
-                throw new RuntimeException(e);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
             }
         });
+        if (toStart.isEmpty()) return;
+        adapterPool.makeRoom(toStart.stream().map(AdapterInstance::getBootstrapFile).collect(Collectors.toList()), toStart.size());
+        for (AdapterInstance instance : toStart) {
+            instance.writeVariables();
+            instance.writeBootstrap();
+        }
+        startConcurrently(toStart);
+        for (AdapterInstance instance : toStart) {
+            adapterPool.add(instance.fingerprint(), instance, adapterCloseMaxWaitTime);
+        }
+    }
+
+    /**
+     * Launch the given (already configured) adapters at once and wait for all of them to start within a single
+     * {@link #adapterStartMaxWaitTime}.
+     */
+    protected void startConcurrently(List<AdapterInstance> toStart) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, toStart.size()), launchThreadFactory());
+        try {
+            long deadline = System.currentTimeMillis() + adapterStartMaxWaitTime;
+            List<CompletableFuture<AdapterInstance>> futures = new ArrayList<>();
+            for (AdapterInstance instance : toStart) {
+                futures.add(instance.launchAsync(() -> launchAdapter(instance), executor, adapterStartWaitTime, deadline));
+            }
+            try {
+                CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+                        .get(Math.max(0, deadline - System.currentTimeMillis()) + adapterStartWaitTime, TimeUnit.MILLISECONDS);
+            } catch (ExecutionException e) {
+                throw new RuntimeException("Adapter failed to start", e.getCause());
+            } catch (TimeoutException e) {
+                List<Integer> notStarted = new ArrayList<>();
+                for (int i = 0; i < futures.size(); i++) {
+                    if (!futures.get(i).isDone()) notStarted.add(toStart.get(i).getPosition());
+                }
+                throw new RuntimeException("Adapters at positions " + notStarted + " did not start within " + adapterStartMaxWaitTime + "ms");
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private ThreadFactory launchThreadFactory() {
+        AtomicInteger threadCtr = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, "adapter-launch-" + threadCtr.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
     }
 
     @AfterAll
     public void tearDown() throws Exception {
+        String configFingerprint = historyFingerprint();
         if (client != null) client.close();
+        if (fileEvents != null) fileEvents.close();
         shutdownAdapter();
+        for (DegradedBackend backend : backends.values()) {
+            backend.close();
+        }
+        TestClassHistory.record(getClass(), configFingerprint, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - classStartNanos));
     }
+
+    private String historyFingerprint() {
+        try {
+            return instances.stream().map(AdapterInstance::fingerprint).collect(Collectors.joining("+"));
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
     protected void setupAdapter(AdapterInstance instance, ServerSocket serverSocket, boolean withLicense) throws Exception {
-        Integer serverPort = serverSocket.getLocalPort();
+        configureAdapter(instance, serverSocket.getLocalPort(), withLicense);
+        instance.writeVariables();
+        instance.writeBootstrap();
+    }
+
+    protected void configureAdapter(AdapterInstance instance, Integer serverPort, boolean withLicense) throws Exception {
         instance.setServerPort(serverPort);
         if (withLicense) {
             instance.withLicense();
         }
 
         instance.customiseBootstrap(customiseBootstrap(instance, new Properties()));
-        instance.customiseVariables(customiseVariables(instance, new Properties()));
-
-        instance.writeVariables();
-        instance.writeBootstrap();
+        Properties variables = new Properties();
+        backends.forEach((variable, backend) -> variables.setProperty(variable, backend.getUrl()));
+        instance.customiseVariables(customiseVariables(instance, variables));
     }
 
     protected Properties customiseBootstrap(AdapterInstance instance, Properties properties) throws Exception {
@@ -98,16 +290,37 @@ public abstract class MultiAdapterFunctionalTest extends AbstractAdapterFunction
     }
 
     protected void withReservedSocket(Consumer<ServerSocket> reservedFn, Callable<Void> afterClosedFn) throws Exception {
-        try (ServerSocket serverSocket = new ServerSocket(0)) {
+        try (ServerSocket serverSocket = reserveSocket()) {
             reservedFn.accept(serverSocket);
         }
         if (afterClosedFn != null) afterClosedFn.call();
     }
 
+    protected void withReservedSockets(int count, Consumer<List<ServerSocket>> reservedFn) throws Exception {
+        List<ServerSocket> serverSockets = new ArrayList<>();
+        try {
+            for (int i = 0; i < count; i++) {
+                serverSockets.add(reserveSocket());
+            }
+            reservedFn.accept(serverSockets);
+        } finally {
+            for (ServerSocket serverSocket : serverSockets) {
+                serverSocket.close();
+            }
+        }
+    }
+
+    protected ServerSocket reserveSocket() throws IOException {
+        return new ServerSocket(useSandbox ? PortAllocator.getInstance().nextPort() : 0);
+    }
+
     protected Void launchAdapter(AdapterInstance instance) throws Exception {
         try {
-            instance.launch();
-            //instance.waitForStarted(adapterStartWaitTime, adapterStartMaxWaitTime);
+            if (isolatedLaunch) {
+                instance.launchIsolated();
+            } else {
+                instance.launch();
+            }
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -116,18 +329,75 @@ public abstract class MultiAdapterFunctionalTest extends AbstractAdapterFunction
 
 
 
+    /**
+     * Release pooled adapters, and stop the others concurrently within a single {@link #adapterCloseMaxWaitTime}.
+     */
     protected void shutdownAdapter() throws Exception {
-        instances.forEach(instance -> {
-            try {
-                instance.shutdown(adapterCloseMaxWaitTime);
-            } catch (Exception e) {
-                throw new RuntimeException(e);
+        List<AdapterInstance> toStop = new ArrayList<>();
+        for (AdapterInstance instance : instances) {
+            if (adapterPool != null && adapterPool.contains(instance)) {
+                instance.stopMetricsSampler();
+                adapterPool.release(instance);
+            } else {
+                toStop.add(instance);
             }
-        });
+        }
+        AdapterShutdown.report(AdapterShutdown.shutdownAll(toStop, System.currentTimeMillis() + adapterCloseMaxWaitTime));
+    }
+
+    /**
+     * @return a {@link LoadDriver} sending GET requests to the given path on the instance's web server.
+     */
+    protected LoadDriver loadDriver(AdapterInstance instance, String path) {
+        return new LoadDriver().withGet(instance.getBaseAdapterUrl() + path);
+    }
+
+    /**
+     * @return a sweep that runs the driver's workload against 1, 2, 4, ... of this class's adapters, sending its
+     * requests to the given path on each adapter's web server.
+     */
+    protected ScalingSweep scalingSweep(LoadDriver driver, String path) {
+        return new ScalingSweep(instances, driver, baseUrl -> new SimpleHttpRequest("GET", URI.create(baseUrl + path)))
+                .withName(getClass().getName());
+    }
+
+    /**
+     * Declare a downstream HTTP service for the adapters to call; it is started before the adapters, and its URL is
+     * passed to {@link #customiseVariables(AdapterInstance, Properties)} as the named variable. Call it from a field
+     * initialiser, and add its routes there too; a route's latency and faults can be changed while the tests run.
+     */
+    protected DegradedBackend backend(String variableName) {
+        return backends.computeIfAbsent(variableName, name -> new DegradedBackend());
+    }
+
+    /**
+     * @return the dispatcher for waiting on files created, modified or deleted by the adapter, started on first use.
+     */
+    protected synchronized FileEventDispatcher getFileEvents() throws IOException {
+        if (fileEvents == null) {
+            fileEvents = new FileEventDispatcher();
+        }
+        return fileEvents;
+    }
+
+    /**
+     * @return a harness that writes files to the consume directory of an fs-consumer workflow and measures how fast
+     * their outputs appear in the produce directory.
+     */
+    protected FileIngestHarness fileIngest(Path consumeDir, Path produceDir) throws IOException {
+        return new FileIngestHarness(getFileEvents(), consumeDir, produceDir).withLabel(getClass().getSimpleName());
     }
 
-    protected WatchKey waitForFileEvent(Path path, long timeOutMs, WatchEvent.Kind<?>... eventKinds) throws Exception {
-        path.register(watchService, eventKinds);
-        return watchService.poll(timeOutMs, TimeUnit.MILLISECONDS);
+    /**
+     * Wait for an event on a file in the directory whose name matches the glob, e.g. one written by an fs-producer; a
+     * matching file that is already there counts as created. See
+     * {@link FileEventDispatcher#awaitFileEvent(Path, String, Duration, WatchEvent.Kind[])}.
+     *
+     * @param eventKinds the kinds of event; all of create, modify and delete if none are given.
+     * @return the first matching file.
+     * @throws java.util.concurrent.TimeoutException if there is no matching event within the timeout.
+     */
+    protected Path waitForFileEvent(Path directory, String glob, long timeOutMs, WatchEvent.Kind<?>... eventKinds) throws Exception {
+        return getFileEvents().awaitFileEvent(directory, glob, Duration.ofMillis(timeOutMs), eventKinds);
     }
 }
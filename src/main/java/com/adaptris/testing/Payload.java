@@ -0,0 +1,370 @@
+package com.adaptris.testing;
+
+import org.apache.hc.client5.http.classic.methods.HttpPost;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.io.entity.AbstractHttpEntity;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.SplittableRandom;
+
+/**
+ * A large, deterministic test payload that is generated as it is read, so that a multi GB document never has to be
+ * held in memory.
+ * <p>
+ * A payload can be streamed ({@link #openStream()}), sent as a streaming HTTP entity ({@link #postTo}), written to a
+ * file ({@link #writeTo(Path)}) or dropped into a directory an fs-consumer polls ({@link #dropInto(Path, String)}). The same payload always produces the same bytes, so its {@link #digest()} can be
+ * compared with the {@link PayloadDigest} of whatever the adapter sends back or writes out.
+ * </p>
+ */
+public abstract class Payload {
+    public enum Format {
+        CSV(ContentType.create("text/csv"), "\n"),
+        XML(ContentType.APPLICATION_XML, "<record "),
+        JSON(ContentType.APPLICATION_JSON, "{\"id\":");
+
+        private final ContentType contentType;
+        private final byte[] recordMarker;
+
+        Format(ContentType contentType, String recordMarker) {
+            this.contentType = contentType;
+            this.recordMarker = recordMarker.getBytes(StandardCharsets.UTF_8);
+        }
+
+        public ContentType getContentType() {
+            return contentType;
+        }
+
+        /**
+         * @return bytes that occur once in every record (for CSV, once in the header line too).
+         */
+        public byte[] getRecordMarker() {
+            return recordMarker.clone();
+        }
+    }
+
+    /**
+     * @return the given bytes, e.g. a small message read from a file.
+     */
+    public static Payload of(byte[] bytes, ContentType contentType) {
+        return new Payload(bytes.length, contentType, null) {
+            @Override
+            protected Generator newGenerator() {
+                return new Generator() {
+                    private int position;
+
+                    @Override
+                    protected int read(byte[] buffer, int offset, int length) {
+                        int count = Math.min(length, bytes.length - position);
+                        System.arraycopy(bytes, position, buffer, offset, count);
+                        position += count;
+                        return count;
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * @return {@code size} pseudo random bytes from the seed.
+     */
+    public static Payload random(long size, long seed) {
+        return new Payload(size, ContentType.APPLICATION_OCTET_STREAM, null) {
+            @Override
+            protected Generator newGenerator() {
+                SplittableRandom random = new SplittableRandom(seed);
+                return new Generator() {
+                    private long word;
+                    private int wordBytes;
+
+                    @Override
+                    protected int read(byte[] buffer, int offset, int length) {
+                        for (int i = offset; i < offset + length; i++) {
+                            if (wordBytes == 0) {
+                                word = random.nextLong();
+                                wordBytes = 8;
+                            }
+                            buffer[i] = (byte) word;
+                            word >>>= 8;
+                            wordBytes--;
+                        }
+                        return length;
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * @return the template repeated (and cut short) to fill {@code size} bytes.
+     */
+    public static Payload repeating(String template, long size, ContentType contentType) {
+        byte[] bytes = template.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length == 0) throw new IllegalArgumentException("Empty template");
+        return new Payload(size, contentType, null) {
+            @Override
+            protected Generator newGenerator() {
+                return new Generator() {
+                    private int position;
+
+                    @Override
+                    protected int read(byte[] buffer, int offset, int length) {
+                        for (int filled = 0; filled < length; ) {
+                            int count = Math.min(length - filled, bytes.length - position);
+                            System.arraycopy(bytes, position, buffer, offset + filled, count);
+                            position = (position + count) % bytes.length;
+                            filled += count;
+                        }
+                        return length;
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * @return a document of {@code count} records ({@code id}, {@code name}, {@code amount} and a {@code description}
+     * of {@code descriptionBytes} characters), whose length is only known once it has been generated.
+     */
+    public static Payload records(Format format, long count, int descriptionBytes) {
+        return new Payload(-1, format.getContentType(), format.recordMarker) {
+            @Override
+            protected Generator newGenerator() {
+                return new RecordGenerator(format, count, descriptionBytes);
+            }
+        };
+    }
+
+    private final long length;
+    private final ContentType contentType;
+    private final byte[] recordMarker;
+
+    protected Payload(long length, ContentType contentType, byte[] recordMarker) {
+        this.length = length;
+        this.contentType = contentType;
+        this.recordMarker = recordMarker;
+    }
+
+    /**
+     * @return the length in bytes, or -1 if it is not known until the payload has been generated.
+     */
+    public long getLength() {
+        return length;
+    }
+
+    public ContentType getContentType() {
+        return contentType;
+    }
+
+    /**
+     * @return the marker that {@link PayloadDigest} counts as records, or null if the payload has no records.
+     */
+    public byte[] getRecordMarker() {
+        return recordMarker == null ? null : recordMarker.clone();
+    }
+
+    protected abstract Generator newGenerator();
+
+    /**
+     * @return a new stream of the payload, from the start.
+     */
+    public InputStream openStream() {
+        Generator generator = newGenerator();
+        return new InputStream() {
+            private long remaining = length;
+
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int count) {
+                if (count == 0) return 0;
+                if (length < 0) return generator.read(buffer, offset, count);
+                if (remaining <= 0) return -1;
+                int read = generator.read(buffer, offset, (int) Math.min(count, remaining));
+                if (read > 0) remaining -= read;
+                return read;
+            }
+        };
+    }
+
+    /**
+     * @return the digest the payload should have, computed by generating it once more.
+     */
+    public PayloadDigest digest() throws IOException {
+        try (InputStream in = openStream()) {
+            return PayloadDigest.of(in, recordMarker);
+        }
+    }
+
+    /**
+     * Stream the payload to the file, replacing it if it exists.
+     */
+    public Path writeTo(Path file) throws IOException {
+        try (InputStream in = openStream()) {
+            Files.copy(in, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return file;
+    }
+
+    /**
+     * Write the payload to a temporary directory next to the directory and move it in with an atomic rename, so that
+     * a poller never sees a partly written file.
+     */
+    public Path dropInto(Path directory, String fileName) throws IOException {
+        Path target = directory.toAbsolutePath().normalize();
+        Path staging = Files.createTempDirectory(target.getParent(), target.getFileName() + ".staging");
+        try {
+            return dropInto(target, fileName, staging);
+        } finally {
+            Files.delete(staging);
+        }
+    }
+
+    /**
+     * Write the payload to the staging directory and move it into the directory with an atomic rename.
+     *
+     * @param stagingDir where the file is written first; it must be on the same file system as the directory.
+     */
+    public Path dropInto(Path directory, String fileName, Path stagingDir) throws IOException {
+        Path staged = writeTo(stagingDir.resolve(fileName));
+        try {
+            return Files.move(staged, directory.resolve(fileName), StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(staged);
+        }
+    }
+
+    /**
+     * @return a repeatable HTTP entity that generates the payload as it is sent.
+     */
+    public AbstractHttpEntity toEntity() {
+        return new AbstractHttpEntity(contentType, null) {
+            @Override
+            public InputStream getContent() {
+                return openStream();
+            }
+
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                try (InputStream in = openStream()) {
+                    in.transferTo(out);
+                }
+            }
+
+            @Override
+            public long getContentLength() {
+                return length;
+            }
+
+            @Override
+            public boolean isStreaming() {
+                return false;
+            }
+
+            @Override
+            public boolean isRepeatable() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * POST the payload and digest the response body as it arrives.
+     *
+     * @param responseMarker the record marker to count in the response, or null.
+     */
+    public PayloadDigest postTo(CloseableHttpClient client, String uri, byte[] responseMarker) throws IOException {
+        HttpPost post = new HttpPost(uri);
+        post.setEntity(toEntity());
+        return client.execute(post, response -> {
+            if (response.getEntity() == null) return PayloadDigest.of(InputStream.nullInputStream(), responseMarker);
+            try (InputStream in = response.getEntity().getContent()) {
+                return PayloadDigest.of(in, responseMarker);
+            }
+        });
+    }
+
+    /**
+     * Produces a payload's bytes in order. For a payload of known length the payload stops reading at that length, so
+     * the generator can fill every buffer it is given; otherwise it decides where the payload ends.
+     */
+    protected abstract static class Generator {
+        /**
+         * @return the number of bytes put in the buffer (at least 1 if {@code length} is not 0), or -1 at the end.
+         */
+        protected abstract int read(byte[] buffer, int offset, int length);
+    }
+
+    private static class RecordGenerator extends Generator {
+        private final Format format;
+        private final long count;
+        private final String description;
+        private byte[] current;
+        private int position;
+        private long next = -1;
+
+        RecordGenerator(Format format, long count, int descriptionBytes) {
+            this.format = format;
+            this.count = count;
+            this.description = "x".repeat(Math.max(0, descriptionBytes));
+        }
+
+        @Override
+        protected int read(byte[] buffer, int offset, int length) {
+            while (current == null || position == current.length) {
+                if (next > count) return -1;
+                current = chunk(next++).getBytes(StandardCharsets.UTF_8);
+                position = 0;
+            }
+            int read = Math.min(length, current.length - position);
+            System.arraycopy(current, position, buffer, offset, read);
+            position += read;
+            return read;
+        }
+
+        /**
+         * @return the header for -1, the n'th record, or the footer for {@code count}.
+         */
+        private String chunk(long n) {
+            if (n < 0) {
+                switch (format) {
+                    case CSV: return "id,name,amount,description\n";
+                    case XML: return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<records>\n";
+                    default: return "[\n";
+                }
+            }
+            if (n == count) {
+                switch (format) {
+                    case CSV: return "";
+                    case XML: return "</records>\n";
+                    default: return "\n]\n";
+                }
+            }
+            String amount = String.format("%d.%02d", (n * 7919) % 100000, n % 100);
+            switch (format) {
+                case CSV:
+                    return n + ",name-" + n + "," + amount + "," + description + "\n";
+                case XML:
+                    return "<record id=\"" + n + "\"><name>name-" + n + "</name><amount>" + amount + "</amount><description>"
+                            + description + "</description></record>\n";
+                default:
+                    return (n == 0 ? "" : ",\n") + "{\"id\":" + n + ",\"name\":\"name-" + n + "\",\"amount\":" + amount
+                            + ",\"description\":\"" + description + "\"}";
+            }
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.adaptris.testing;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * The length, CRC32C checksum and record count of a stream or file, computed in a single pass with a fixed size
+ * buffer, so checking a multi GB response or output file takes no more memory than checking a small one.
+ * <p>
+ * Records are counted as the occurrences of a marker (e.g. {@link Payload.Format#getRecordMarker()}); occurrences
+ * that span buffer boundaries are counted.
+ * </p>
+ */
+public class PayloadDigest {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final long length;
+    private final long checksum;
+    private final long records;
+
+    public PayloadDigest(long length, long checksum, long records) {
+        this.length = length;
+        this.checksum = checksum;
+        this.records = records;
+    }
+
+    /**
+     * @param recordMarker the bytes to count as records, or null to not count records.
+     */
+    public static PayloadDigest of(InputStream in, byte[] recordMarker) throws IOException {
+        Scanner scanner = new Scanner(recordMarker);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            scanner.update(ByteBuffer.wrap(buffer, 0, read));
+        }
+        return scanner.digest();
+    }
+
+    /**
+     * Digest a file, e.g. one an fs-producer wrote, reading it through a direct buffer.
+     */
+    public static PayloadDigest of(Path file, byte[] recordMarker) throws IOException {
+        Scanner scanner = new Scanner(recordMarker);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                scanner.update(buffer);
+                buffer.clear();
+            }
+        }
+        return scanner.digest();
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public long getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * @return the number of record markers seen; 0 if no marker was given.
+     */
+    public long getRecords() {
+        return records;
+    }
+
+    /**
+     * @throws AssertionError if the length, checksum or record count differ.
+     */
+    public PayloadDigest assertMatches(PayloadDigest expected) {
+        if (length != expected.length || checksum != expected.checksum || records != expected.records) {
+            throw new AssertionError("Expected " + expected + " but was " + this);
+        }
+        return this;
+    }
+
+    /**
+     * @throws AssertionError if the record count differs, e.g. for an output that is a transformation of the input.
+     */
+    public PayloadDigest assertRecords(long expectedRecords) {
+        if (records != expectedRecords) {
+            throw new AssertionError("Expected " + expectedRecords + " records but was " + records);
+        }
+        return this;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof PayloadDigest)) return false;
+        PayloadDigest other = (PayloadDigest) o;
+        return length == other.length && checksum == other.checksum && records == other.records;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(length) * 31 + Long.hashCode(checksum) * 17 + Long.hashCode(records);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("length=%d crc32c=%08x records=%d", length, checksum, records);
+    }
+
+    /**
+     * Counts the marker with a KMP matcher, whose state carries over from one buffer to the next.
+     */
+    private static class Scanner {
+        private final CRC32C crc = new CRC32C();
+        private final byte[] marker;
+        private final int[] fallback;
+        private long length;
+        private long records;
+        private int matched;
+
+        Scanner(byte[] marker) {
+            this.marker = marker == null || marker.length == 0 ? null : marker;
+            this.fallback = this.marker == null ? null : fallback(this.marker);
+        }
+
+        void update(ByteBuffer buffer) {
+            length += buffer.remaining();
+            if (marker != null) {
+                for (int i = buffer.position(); i < buffer.limit(); i++) {
+                    byte b = buffer.get(i);
+                    while (matched > 0 && marker[matched] != b) matched = fallback[matched - 1];
+                    if (marker[matched] == b) matched++;
+                    if (matched == marker.length) {
+                        records++;
+                        matched = fallback[matched - 1];
+                    }
+                }
+            }
+            crc.update(buffer);
+        }
+
+        PayloadDigest digest() {
+            return new PayloadDigest(length, crc.getValue(), records);
+        }
+
+        private static int[] fallback(byte[] marker) {
+            int[] fallback = new int[marker.length];
+            for (int i = 1, k = 0; i < marker.length; i++) {
+                while (k > 0 && marker[i] != marker[k]) k = fallback[k - 1];
+                if (marker[i] == marker[k]) k++;
+                fallback[i] = k;
+            }
+            return fallback;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.adaptris.testing;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.remote.JMXServiceURL;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Hands out ports from a block reserved for this fork, so that adapters in parallel forks do not compete for the
+ * same ports.
+ * <p>
+ * Block {@code n} is the ports {@code [base + n * blockSize, base + (n + 1) * blockSize)}. A fork reserves a block
+ * by holding a lock on {@code block-<n>.lock} in {@link #LOCK_DIR_PROPERTY} until it exits, so forks of concurrent
+ * test tasks and reused daemons never share a block, whatever their worker ids. The default blocks end below 32768,
+ * where the Linux ephemeral range starts. Each port is checked to be free before it is handed out; if the block is
+ * exhausted, or every block is taken, an ephemeral port is used instead.
+ * </p>
+ */
+public class PortAllocator {
+    public static final String BASE_PORT_PROPERTY = "interlok.testing.ports.base";
+    public static final String BLOCK_SIZE_PROPERTY = "interlok.testing.ports.blockSize";
+    public static final String MAX_FORKS_PROPERTY = "interlok.testing.ports.maxForks";
+    public static final String LOCK_DIR_PROPERTY = "interlok.testing.ports.lockDir";
+
+    private static final Logger log = LoggerFactory.getLogger(PortAllocator.class);
+
+    private static final Pattern RMI_REGISTRY_PORT = Pattern.compile("(rmi://[^:/]*:)(\\d+)");
+
+    private static PortAllocator instance;
+    private static final List<FileChannel> blockLocks = new ArrayList<>();
+
+    private final int firstPort;
+    private final int lastPort;
+    private int nextPort;
+
+    public PortAllocator(int firstPort, int lastPort) {
+        this.firstPort = firstPort;
+        this.lastPort = lastPort;
+        this.nextPort = firstPort;
+    }
+
+    public static synchronized PortAllocator getInstance() {
+        if (instance == null) {
+            int base = Integer.getInteger(BASE_PORT_PROPERTY, 20000);
+            int blockSize = Integer.getInteger(BLOCK_SIZE_PROPERTY, 100);
+            int maxForks = Integer.getInteger(MAX_FORKS_PROPERTY, 120);
+            Path lockDir = Paths.get(System.getProperty(LOCK_DIR_PROPERTY,
+                    Paths.get(System.getProperty("java.io.tmpdir"), "interlok-testing-ports").toString()));
+            int block = reserveBlock(lockDir, maxForks, Math.floorMod(ConfigSandbox.getForkId().hashCode(), maxForks));
+            if (block < 0) {
+                log.warn("All {} port blocks in {} are taken; using ephemeral ports", maxForks, lockDir);
+                instance = new PortAllocator(0, -1);
+            } else {
+                int first = base + block * blockSize;
+                instance = new PortAllocator(first, first + blockSize - 1);
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Lock the first free block, starting from the preferred one, for the life of this JVM.
+     *
+     * @return the block, or -1 if every block is locked.
+     */
+    protected static synchronized int reserveBlock(Path lockDir, int blocks, int preferred) {
+        try {
+            Files.createDirectories(lockDir);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        for (int i = 0; i < blocks; i++) {
+            int block = (preferred + i) % blocks;
+            FileChannel channel = null;
+            try {
+                channel = FileChannel.open(lockDir.resolve("block-" + block + ".lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                FileLock lock = channel.tryLock();
+                if (lock != null) {
+                    blockLocks.add(channel);
+                    return block;
+                }
+            } catch (IOException | OverlappingFileLockException e) {
+                // taken by another fork (or by this JVM), try the next one.
+            }
+            closeQuietly(channel);
+        }
+        return -1;
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // nothing was locked.
+        }
+    }
+
+    /**
+     * @return a port from this fork's block that was free when it was checked.
+     */
+    public synchronized int nextPort() {
+        while (nextPort <= lastPort) {
+            int port = nextPort++;
+            if (isFree(port)) return port;
+        }
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            return serverSocket.getLocalPort();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public int getFirstPort() {
+        return firstPort;
+    }
+
+    public int getLastPort() {
+        return lastPort;
+    }
+
+    /**
+     * @return the JMX service URL with its port (or the RMI registry port for {@code /jndi/rmi://} URLs) replaced.
+     */
+    public static JMXServiceURL withPort(JMXServiceURL url, int port) throws Exception {
+        if (url.getPort() != 0) {
+            return new JMXServiceURL(url.getProtocol(), url.getHost(), port, url.getURLPath());
+        }
+        Matcher matcher = RMI_REGISTRY_PORT.matcher(url.getURLPath());
+        if (matcher.find()) {
+            return new JMXServiceURL(url.getProtocol(), url.getHost(), 0, matcher.replaceFirst("$1" + port));
+        }
+        return url;
+    }
+
+    protected static boolean isFree(int port) {
+        try (ServerSocket serverSocket = new ServerSocket(port)) {
+            serverSocket.setReuseAddress(true);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
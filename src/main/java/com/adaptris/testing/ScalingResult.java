@@ -0,0 +1,89 @@
+package com.adaptris.testing;
+
+import java.util.List;
+
+/**
+ * The outcome of a {@link ScalingSweep}: one step per cluster size.
+ */
+public class ScalingResult {
+    private final String name;
+    private final EndpointBalancer.Strategy strategy;
+    private final List<Step> steps;
+
+    public ScalingResult(String name, EndpointBalancer.Strategy strategy, List<Step> steps) {
+        this.name = name;
+        this.strategy = strategy;
+        this.steps = steps;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public EndpointBalancer.Strategy getStrategy() {
+        return strategy;
+    }
+
+    public List<Step> getSteps() {
+        return steps;
+    }
+
+    /**
+     * @return the step's throughput divided by the cluster size times the single instance throughput; 1.0 is linear
+     * scaling.
+     */
+    public double getEfficiency(Step step) {
+        double single = steps.get(0).getLoad().getThroughput() / steps.get(0).getInstances();
+        return single <= 0 ? 0 : step.getLoad().getThroughput() / (single * step.getInstances());
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder description = new StringBuilder(name).append(" (").append(strategy).append(")");
+        for (Step step : steps) {
+            description.append(String.format("%n  %d instances: %.1f/s efficiency=%.2f p99=%dms errors=%d", step.getInstances(),
+                    step.getLoad().getThroughput(), getEfficiency(step), step.getLoad().getP99().toMillis(),
+                    step.getLoad().getTotalErrors()));
+        }
+        return description.toString();
+    }
+
+    /**
+     * The load result for one cluster size.
+     */
+    public static class Step {
+        private final int instances;
+        private final LoadResult load;
+        private final double[] cpuCores;
+        private final long[] requests;
+
+        public Step(int instances, LoadResult load, double[] cpuCores, long[] requests) {
+            this.instances = instances;
+            this.load = load;
+            this.cpuCores = cpuCores;
+            this.requests = requests;
+        }
+
+        public int getInstances() {
+            return instances;
+        }
+
+        public LoadResult getLoad() {
+            return load;
+        }
+
+        /**
+         * @return the average number of cores each instance's JVM used during the step; -1 if it could not be read.
+         */
+        public double[] getCpuCores() {
+            return cpuCores;
+        }
+
+        /**
+         * @return the number of requests the balancer sent to each instance, including warmup requests.
+         */
+        public long[] getRequests() {
+            return requests;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.adaptris.testing;
+
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Measures how throughput scales as adapters are added to a cluster.
+ * <p>
+ * The same workload is run against the first 1, 2, 4, ... N of the instances (and N itself), spread across their
+ * web servers by an {@link EndpointBalancer}. By default the offered load grows with the cluster: the driver's
+ * concurrency (or arrival rate) is per instance. For each cluster size the throughput, latency, errors and the CPU
+ * used by each instance's JVM are recorded, along with the scaling efficiency: the throughput divided by the
+ * cluster size times the single instance throughput. The results are written to {@code <reports>/scaling/<name>.csv}.
+ * </p>
+ * <p>
+ * The instances must already be running. Adapters started with {@link AdapterInstance#launch()} share one JVM, so
+ * their CPU figures are all the same, the whole JVM's.
+ * </p>
+ */
+public class ScalingSweep {
+    private static final ObjectName OPERATING_SYSTEM = objectName("java.lang:type=OperatingSystem");
+
+    private final List<AdapterInstance> instances;
+    private final LoadDriver driver;
+    private final Function<String, SimpleHttpRequest> requestFactory;
+    private String name = "scaling";
+    private EndpointBalancer.Strategy strategy = EndpointBalancer.Strategy.ROUND_ROBIN;
+    private boolean scaleLoad = true;
+    private long settleMillis = 1000;
+
+    /**
+     * @param driver the workload for one instance; its request is replaced by {@code requestFactory}.
+     * @param requestFactory creates a request for an instance's base URL.
+     */
+    public ScalingSweep(List<AdapterInstance> instances, LoadDriver driver, Function<String, SimpleHttpRequest> requestFactory) {
+        if (instances.isEmpty()) throw new IllegalArgumentException("No instances to scale across");
+        this.instances = instances;
+        this.driver = driver;
+        this.requestFactory = requestFactory;
+    }
+
+    public ScalingSweep withName(String name) {
+        this.name = name;
+        return this;
+    }
+
+    public ScalingSweep withStrategy(EndpointBalancer.Strategy strategy) {
+        this.strategy = strategy;
+        return this;
+    }
+
+    /**
+     * @param scaleLoad if true (the default) the driver's load is per instance; if false the same total load is
+     *                  offered to every cluster size, which shows how latency rather than throughput scales.
+     */
+    public ScalingSweep withLoadScaling(boolean scaleLoad) {
+        this.scaleLoad = scaleLoad;
+        return this;
+    }
+
+    /**
+     * @param millis the pause between cluster sizes, so that one step's backlog does not spill into the next.
+     */
+    public ScalingSweep withSettleTime(long millis) {
+        this.settleMillis = millis;
+        return this;
+    }
+
+    /**
+     * @return the cluster sizes to measure: powers of two up to the number of instances, and the number of instances.
+     */
+    public List<Integer> getClusterSizes() {
+        List<Integer> sizes = new ArrayList<>();
+        for (int size = 1; size < instances.size(); size *= 2) {
+            sizes.add(size);
+        }
+        sizes.add(instances.size());
+        return sizes;
+    }
+
+    public ScalingResult run() throws Exception {
+        int concurrency = driver.getConcurrency();
+        double arrivalRate = driver.getArrivalRate();
+        EndpointBalancer balancer = driver.getBalancer();
+        Function<String, SimpleHttpRequest> balancedRequestFactory = driver.getBalancedRequestFactory();
+        List<ScalingResult.Step> steps = new ArrayList<>();
+        try {
+            for (int size : getClusterSizes()) {
+                if (!steps.isEmpty()) Thread.sleep(settleMillis);
+                steps.add(runStep(size, scaleLoad ? size : 1, concurrency, arrivalRate));
+            }
+        } finally {
+            driver.withConcurrency(concurrency).withArrivalRate(arrivalRate).withBalancer(balancer, balancedRequestFactory);
+        }
+        ScalingResult result = new ScalingResult(name, strategy, steps);
+        write(result);
+        return result;
+    }
+
+    private ScalingResult.Step runStep(int size, int multiplier, int concurrency, double arrivalRate) throws Exception {
+        List<AdapterInstance> cluster = instances.subList(0, size);
+        EndpointBalancer balancer = new EndpointBalancer(
+                cluster.stream().map(AdapterInstance::getBaseAdapterUrl).collect(Collectors.toList()), strategy);
+        driver.withConcurrency(concurrency * multiplier).withArrivalRate(arrivalRate * multiplier).withBalancer(balancer, requestFactory);
+        long[] cpuBefore = cpuTimes(cluster);
+        long start = System.nanoTime();
+        LoadResult load = driver.run();
+        long elapsed = System.nanoTime() - start;
+        long[] cpuAfter = cpuTimes(cluster);
+        double[] cores = new double[size];
+        long[] sent = new long[size];
+        for (int i = 0; i < size; i++) {
+            cores[i] = cpuBefore[i] < 0 || cpuAfter[i] < 0 ? -1 : (double) (cpuAfter[i] - cpuBefore[i]) / elapsed;
+            sent[i] = balancer.getEndpoints().get(i).getSent();
+        }
+        return new ScalingResult.Step(size, load, cores, sent);
+    }
+
+    /**
+     * @return each instance's JVM CPU time in nanoseconds, or -1 if it could not be read.
+     */
+    private static long[] cpuTimes(List<AdapterInstance> cluster) {
+        long[] times = new long[cluster.size()];
+        for (int i = 0; i < times.length; i++) {
+            try {
+                times[i] = ((Number) cluster.get(i).getMBeanServerConnection().getAttribute(OPERATING_SYSTEM, "ProcessCpuTime")).longValue();
+            } catch (Exception e) {
+                times[i] = -1;
+            }
+        }
+        return times;
+    }
+
+    private void write(ScalingResult result) throws IOException {
+        File report = TestReports.reportFile("scaling", name + ".csv");
+        try (Writer writer = new FileWriter(report, false)) {
+            writer.write("instances,strategy,throughput,efficiency,p50us,p99us,maxUs,errors,cpuCores,requestsPerInstance" + System.lineSeparator());
+            for (ScalingResult.Step step : result.getSteps()) {
+                LatencyHistogram histogram = step.getLoad().getHistogram();
+                writer.write(String.join(",", String.valueOf(step.getInstances()), strategy.name(),
+                        String.format("%.1f", step.getLoad().getThroughput()), String.format("%.3f", result.getEfficiency(step)),
+                        String.valueOf(histogram.getValueAtPercentile(50.0)), String.valueOf(histogram.getValueAtPercentile(99.0)),
+                        String.valueOf(histogram.getMax()), String.valueOf(step.getLoad().getTotalErrors()),
+                        join(step.getCpuCores()), join(step.getRequests())) + System.lineSeparator());
+            }
+        }
+    }
+
+    private static String join(double[] values) {
+        StringBuilder joined = new StringBuilder();
+        for (double value : values) {
+            if (joined.length() > 0) joined.append(' ');
+            joined.append(String.format("%.2f", value));
+        }
+        return joined.toString();
+    }
+
+    private static String join(long[] values) {
+        StringBuilder joined = new StringBuilder();
+        for (long value : values) {
+            if (joined.length() > 0) joined.append(' ');
+            joined.append(value);
+        }
+        return joined.toString();
+    }
+
+    private static ObjectName objectName(String name) {
+        try {
+            return new ObjectName(name);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
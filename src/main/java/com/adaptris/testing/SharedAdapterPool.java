@@ -0,0 +1,191 @@
+package com.adaptris.testing;
+
+import org.junit.jupiter.api.extension.ExtensionContext;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryUsage;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.*;
+
+/**
+ * A JVM wide pool of started adapters that can be leased by any test class with the same configuration.
+ * <p>
+ * Adapters are keyed by a fingerprint of their bootstrap file and their customised bootstrap and variables
+ * properties (see {@link #fingerprint(File, Properties, Properties)}). Adapters stay running when a test class
+ * releases them, and are shut down when the pool is closed at the end of the test run. Idle adapters are
+ * evicted least recently used first when more than {@link #MAX_LIVE_PROPERTY} would be running, when the free
+ * heap of the JVM an adapter runs in (this one for in-process adapters, its own for forked ones) falls below
+ * {@link #MIN_FREE_HEAP_RATIO_PROPERTY}, or when a different configuration needs the same bootstrap file.
+ * </p>
+ *
+ * @see SharedAdapterPoolExtension
+ */
+public class SharedAdapterPool implements ExtensionContext.Store.CloseableResource {
+    public static final String MAX_LIVE_PROPERTY = "interlok.testing.pool.maxLive";
+    public static final String MIN_FREE_HEAP_RATIO_PROPERTY = "interlok.testing.pool.minFreeHeapRatio";
+
+    /**
+     * Properties that change every launch (reserved ports, positional file names) and so are not part of the
+     * fingerprint.
+     */
+    protected static final Set<String> TRANSIENT_PROPERTIES = Set.of("webServerPort", "sysprop.jetty.http.port",
+            "variable-substitution.properties.url.0");
+
+    private final int maxLive;
+    private final double minFreeHeapRatio;
+    private final LinkedHashMap<String, PooledAdapter> adapters = new LinkedHashMap<>(16, 0.75f, true);
+
+    public SharedAdapterPool() {
+        this(Integer.getInteger(MAX_LIVE_PROPERTY, 4),
+                Double.parseDouble(System.getProperty(MIN_FREE_HEAP_RATIO_PROPERTY, "0.1")));
+    }
+
+    public SharedAdapterPool(int maxLive, double minFreeHeapRatio) {
+        this.maxLive = Math.max(1, maxLive);
+        this.minFreeHeapRatio = minFreeHeapRatio;
+    }
+
+    /**
+     * Lease an already running adapter.
+     *
+     * @return the adapter, or null if there is no running adapter with this fingerprint.
+     */
+    public synchronized AdapterInstance acquire(String fingerprint) {
+        PooledAdapter pooled = adapters.get(fingerprint);
+        if (pooled == null) return null;
+        pooled.leases++;
+        return pooled.instance;
+    }
+
+    /**
+     * Evict idle adapters so that the given bootstrap files are free and {@code count} more adapters can be
+     * started without going over the cap.
+     */
+    public synchronized void makeRoom(Collection<File> bootstrapFiles, int count) throws Exception {
+        Set<String> paths = new HashSet<>();
+        for (File file : bootstrapFiles) {
+            paths.add(file.getCanonicalPath());
+        }
+        for (PooledAdapter pooled : new ArrayList<>(adapters.values())) {
+            if (paths.contains(pooled.bootstrapPath)) {
+                if (pooled.leases > 0) {
+                    throw new IllegalStateException("Bootstrap file " + pooled.bootstrapPath + " is in use by a leased adapter with a different configuration");
+                }
+                evict(pooled);
+            }
+        }
+        for (PooledAdapter pooled : new ArrayList<>(adapters.values())) {
+            if (pooled.leases == 0 && (adapters.size() + count > maxLive || isLowOnMemory(pooled.instance))) {
+                evict(pooled);
+            }
+        }
+    }
+
+    /**
+     * Add a newly started adapter to the pool, leased by the caller.
+     */
+    public synchronized void add(String fingerprint, AdapterInstance instance, int adapterCloseMaxWaitTime) throws Exception {
+        adapters.put(fingerprint, new PooledAdapter(instance, instance.getBootstrapFile().getCanonicalPath(), adapterCloseMaxWaitTime));
+    }
+
+    /**
+     * Return a leased adapter to the pool; it stays running for the next test class with the same configuration,
+     * unless it has been {@link AdapterInstance#isReconfigured() reconfigured}, in which case it is shut down once it
+     * is no longer leased.
+     */
+    public synchronized void release(AdapterInstance instance) throws Exception {
+        for (PooledAdapter pooled : new ArrayList<>(adapters.values())) {
+            if (pooled.instance == instance && pooled.leases > 0) {
+                pooled.leases--;
+                if (pooled.leases == 0 && instance.isReconfigured()) {
+                    evict(pooled);
+                }
+            }
+        }
+    }
+
+    public synchronized boolean contains(AdapterInstance instance) {
+        return adapters.values().stream().anyMatch(pooled -> pooled.instance == instance);
+    }
+
+    /**
+     * Shut down every adapter in the pool, concurrently.
+     */
+    @Override
+    public synchronized void close() throws Exception {
+        List<AdapterInstance> toStop = new ArrayList<>();
+        long closeWait = 0;
+        for (PooledAdapter pooled : adapters.values()) {
+            toStop.add(pooled.instance);
+            closeWait = Math.max(closeWait, pooled.adapterCloseMaxWaitTime);
+        }
+        adapters.clear();
+        AdapterShutdown.report(AdapterShutdown.shutdownAll(toStop, System.currentTimeMillis() + closeWait));
+    }
+
+    private void evict(PooledAdapter pooled) throws Exception {
+        adapters.values().remove(pooled);
+        pooled.instance.shutdown(pooled.adapterCloseMaxWaitTime);
+    }
+
+    /**
+     * @return true if the JVM the adapter runs in is low on heap; read over JMX if the adapter is forked, since this
+     * JVM's heap says nothing about it.
+     */
+    protected boolean isLowOnMemory(AdapterInstance instance) {
+        if (instance.getProcess() == null) return isLowOnMemory();
+        try {
+            MemoryMXBean memory = ManagementFactory.newPlatformMXBeanProxy(instance.getMBeanServerConnection(),
+                    ManagementFactory.MEMORY_MXBEAN_NAME, MemoryMXBean.class);
+            MemoryUsage heap = memory.getHeapMemoryUsage();
+            long max = heap.getMax() < 0 ? heap.getCommitted() : heap.getMax();
+            return (max - heap.getUsed()) < max * minFreeHeapRatio;
+        } catch (Exception e) {
+            // not connected; the adapter is evicted by the cap if need be.
+            return false;
+        }
+    }
+
+    protected boolean isLowOnMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = runtime.totalMemory() - runtime.freeMemory();
+        return (runtime.maxMemory() - used) < runtime.maxMemory() * minFreeHeapRatio;
+    }
+
+    /**
+     * Build a fingerprint for an adapter configuration; properties in {@link #TRANSIENT_PROPERTIES} are ignored.
+     */
+    public static String fingerprint(File bootstrapFile, Properties bootstrapProperties, Properties variablesProperties) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(bootstrapFile.getCanonicalPath().getBytes(StandardCharsets.UTF_8));
+            update(digest, "bootstrap.", bootstrapProperties);
+            update(digest, "variables.", variablesProperties);
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void update(MessageDigest digest, String prefix, Properties properties) {
+        new TreeSet<>(properties.stringPropertyNames()).stream()
+                .filter(key -> !TRANSIENT_PROPERTIES.contains(key))
+                .forEach(key -> digest.update(("\n" + prefix + key + "=" + properties.getProperty(key)).getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static class PooledAdapter {
+        private final AdapterInstance instance;
+        private final String bootstrapPath;
+        private final int adapterCloseMaxWaitTime;
+        private int leases = 1;
+
+        private PooledAdapter(AdapterInstance instance, String bootstrapPath, int adapterCloseMaxWaitTime) {
+            this.instance = instance;
+            this.bootstrapPath = bootstrapPath;
+            this.adapterCloseMaxWaitTime = adapterCloseMaxWaitTime;
+        }
+    }
+}
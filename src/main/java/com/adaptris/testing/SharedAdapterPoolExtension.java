@@ -0,0 +1,34 @@
+package com.adaptris.testing;
+
+import org.junit.jupiter.api.extension.BeforeAllCallback;
+import org.junit.jupiter.api.extension.ExtensionContext;
+
+/**
+ * Shares started adapters between test classes with the same configuration.
+ * <p>
+ * Annotate a {@link SingleAdapterFunctionalTest} or {@link MultiAdapterFunctionalTest} with
+ * {@code @ExtendWith(SharedAdapterPoolExtension.class)} and its adapters will be leased from a
+ * {@link SharedAdapterPool} held in the root {@link ExtensionContext.Store}, rather than started and shut down
+ * for each class. The pool is closed, shutting down every adapter, when the test run finishes.
+ * </p>
+ */
+public class SharedAdapterPoolExtension implements BeforeAllCallback {
+    private static final ExtensionContext.Namespace NAMESPACE = ExtensionContext.Namespace.create(SharedAdapterPool.class);
+
+    @Override
+    public void beforeAll(ExtensionContext context) {
+        SharedAdapterPool pool = getPool(context);
+        context.getTestInstance().ifPresent(instance -> {
+            if (instance instanceof SingleAdapterFunctionalTest) {
+                ((SingleAdapterFunctionalTest) instance).setAdapterPool(pool);
+            } else if (instance instanceof MultiAdapterFunctionalTest) {
+                ((MultiAdapterFunctionalTest) instance).setAdapterPool(pool);
+            }
+        });
+    }
+
+    public static SharedAdapterPool getPool(ExtensionContext context) {
+        return context.getRoot().getStore(NAMESPACE)
+                .getOrComputeIfAbsent(SharedAdapterPool.class, key -> new SharedAdapterPool(), SharedAdapterPool.class);
+    }
+}
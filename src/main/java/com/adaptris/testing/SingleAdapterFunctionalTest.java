@@ -1,8 +1,6 @@
 package com.adaptris.testing;
 
-import com.adaptris.core.StartedState;
 import com.adaptris.core.runtime.AdapterManagerMBean;
-import com.adaptris.core.runtime.AdapterRegistryMBean;
 import com.adaptris.interlok.boot.InterlokLauncher;
 import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
 import org.apache.hc.client5.http.impl.classic.HttpClients;
@@ -10,15 +8,16 @@ import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.TestInstance;
 
-import javax.management.JMX;
-import javax.management.ObjectInstance;
 import javax.management.ObjectName;
 import javax.management.remote.JMXConnector;
-import javax.management.remote.JMXConnectorFactory;
 import javax.management.remote.JMXServiceURL;
 import java.io.*;
 import java.net.ServerSocket;
 import java.nio.file.*;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
@@ -31,35 +30,185 @@ import java.util.function.Consumer;
  */
 @TestInstance(TestInstance.Lifecycle.PER_CLASS)
 public class SingleAdapterFunctionalTest extends AbstractAdapterFunctionalTest {
-    protected WatchService watchService;
+    protected FileEventDispatcher fileEvents;
+    protected Map<String, DegradedBackend> backends = new LinkedHashMap<>();
     protected CloseableHttpClient client = HttpClients.createDefault();
     protected Integer serverPort;
     protected JMXServiceURL jmxServiceUrl;
     protected JMXConnector jmxConnector;
+    protected AdapterJmx jmx;
+    protected ObjectName adapterObjectName;
     protected AdapterManagerMBean adapterManagerMBean;
 
     protected int adapterStartWaitTime = 1000;
     protected int adapterStartMaxWaitTime = 10000;
     protected int adapterCloseMaxWaitTime = 10000;
 
+    /**
+     * Write the rewritten configuration to a {@link ConfigSandbox} rather than back to ./config, and use fork
+     * specific ports, so that test classes can run in parallel; on by default when the functionalTest task runs with
+     * more than one fork.
+     */
+    protected boolean useSandbox = ConfigSandbox.isEnabled();
+    protected ConfigSandbox sandbox;
+    /**
+     * The phase timings of the adapter's startup, see {@link StartupTimings}.
+     */
+    protected StartupTimings startupTimings;
+
+    /**
+     * If greater than zero, sample the adapter's JVM and workflow metrics at this interval (ms) while the tests run,
+     * to {@code <reports>/metrics/<test class>/adapter-0.csv}.
+     */
+    protected long metricsSampleInterval = 0;
+    protected JmxMetricsSampler metricsSampler;
+
+    protected SharedAdapterPool adapterPool;
+    protected AdapterInstance pooledAdapter;
+    private long classStartNanos;
+    private String configFingerprint;
+
+    /**
+     * Set by {@link SharedAdapterPoolExtension}; when set the adapter is leased from the pool instead of being
+     * started and shut down by this class.
+     */
+    public void setAdapterPool(SharedAdapterPool adapterPool) {
+        this.adapterPool = adapterPool;
+    }
+
     protected String getBaseAdapterUrl() {
         return String.format("http://localhost:%d", serverPort);
     }
 
+    /**
+     * @return a {@link LoadDriver} sending GET requests to the given path on the adapter's web server.
+     */
+    protected LoadDriver loadDriver(String path) {
+        return new LoadDriver().withGet(getBaseAdapterUrl() + path);
+    }
+
     @BeforeAll
     public void setup() throws Exception {
-        watchService = FileSystems.getDefault().newWatchService();
-        withReservedSocket(this::setupAdapter, this::launchAdapter);
-        connectJMX();
-        waitForAdapterStarted();
+        classStartNanos = System.nanoTime();
+        for (DegradedBackend backend : backends.values()) {
+            backend.start();
+        }
+        if (useSandbox) {
+            sandbox = ConfigSandbox.create(new File("./config"), getClass().getName());
+        }
+        startupTimings = new StartupTimings(getClass().getName());
+        if (adapterPool != null) {
+            leaseAdapter();
+        } else {
+            startupTimings.begin();
+            withReservedSocket(this::setupAdapter, this::launchAdapter);
+            startupTimings.mark(StartupTimings.Phase.LAUNCH);
+            configFingerprint = historyFingerprint();
+            connectJMX();
+            waitForAdapterStarted();
+        }
+        if (metricsSampleInterval > 0) {
+            metricsSampler = new JmxMetricsSampler(() -> {
+                try {
+                    return jmx.getConnection();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }, TestReports.reportFile("metrics", getClass().getName(), "adapter-0.csv"), metricsSampleInterval).start();
+        }
+    }
+
+    /**
+     * Lease a running adapter with the same configuration from the {@link SharedAdapterPool}, or start one and add
+     * it to the pool.
+     */
+    protected void leaseAdapter() throws Exception {
+        File bootstrapFile = getConfigFile("bootstrap.properties");
+        withReservedSocket(serverSocket -> {
+            serverPort = serverSocket.getLocalPort();
+            configFingerprint = fingerprint(new File("./config/bootstrap.properties"), new File("./config/variables.properties"));
+            pooledAdapter = adapterPool.acquire(configFingerprint);
+            if (pooledAdapter == null) {
+                try {
+                    adapterPool.makeRoom(List.of(bootstrapFile), 1);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+                setupAdapter(serverSocket);
+            }
+        }, () -> pooledAdapter == null ? launchAdapter() : null);
+        if (pooledAdapter == null) {
+            startupTimings.mark(StartupTimings.Phase.LAUNCH);
+            connectJMX();
+            waitForAdapterStarted();
+            AdapterInstance instance = new AdapterInstance(bootstrapFile);
+            instance.setServerPort(serverPort);
+            instance.adoptJMX(jmx);
+            adapterPool.add(configFingerprint, instance, adapterCloseMaxWaitTime);
+            pooledAdapter = instance;
+        } else {
+            serverPort = pooledAdapter.getServerPort();
+            jmxServiceUrl = pooledAdapter.jmxServiceUrl;
+            jmx = pooledAdapter.jmx;
+            jmxConnector = pooledAdapter.jmxConnector;
+            adapterObjectName = pooledAdapter.adapterObjectName;
+            adapterManagerMBean = pooledAdapter.adapterManagerMBean;
+        }
+    }
+
+    /**
+     * @return the fingerprint of the configuration this class would write, without writing it; the bootstrap
+     * properties go through {@link #fingerprintBootstrapProperties(Properties)} rather than
+     * {@link #customiseBootstrapProperties(Properties)}, and {@link #customiseVariablesIfExists(Properties)} must not
+     * have side effects.
+     */
+    protected String fingerprint(File bootstrapFile, File variablesFile) {
+        Properties bootstrapProperties = loadProperties(bootstrapFile);
+        fingerprintBootstrapProperties(bootstrapProperties);
+        Properties variablesProperties = new Properties();
+        if (variablesFile.exists()) {
+            variablesProperties = loadProperties(variablesFile);
+            putBackendVariables(variablesProperties);
+            customiseVariablesIfExists(variablesProperties);
+        }
+        return SharedAdapterPool.fingerprint(bootstrapFile, bootstrapProperties, variablesProperties);
+    }
+
+    protected Properties loadProperties(File file) {
+        Properties properties = new Properties();
+        try (InputStream is = new FileInputStream(file)) {
+            properties.load(is);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        return properties;
     }
 
     @AfterAll
     public void tearDown() throws Exception {
         if (client != null) client.close();
+        if (fileEvents != null) fileEvents.close();
         shutdownAdapter();
+        for (DegradedBackend backend : backends.values()) {
+            backend.close();
+        }
+        TestClassHistory.record(getClass(), configFingerprint, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - classStartNanos));
+    }
+
+    /**
+     * @return the fingerprint of the configuration the adapter was launched with, for {@link TestClassHistory}, or
+     * null if it cannot be computed.
+     */
+    private String historyFingerprint() {
+        try {
+            return fingerprint(new File("./config/bootstrap.properties"), new File("./config/variables.properties"));
+        } catch (Exception e) {
+            return null;
+        }
     }
+
     protected void setupAdapter(ServerSocket serverSocket) {
+        if (startupTimings != null) startupTimings.beginIfIdle();
         serverPort = serverSocket.getLocalPort();
         File bootstrapFile = new File("./config/bootstrap.properties");
         assert bootstrapFile.exists() : "Bootstrap file does not exist: " + bootstrapFile.getAbsolutePath();
@@ -70,7 +219,12 @@ public class SingleAdapterFunctionalTest extends AbstractAdapterFunctionalTest {
             String jmxServiceUrlStr = bootstrapProperties.getProperty("jmxserviceurl", null);
             assert jmxServiceUrlStr != null : "Bootstrap file must have jmxserviceurl property";
             jmxServiceUrl = new JMXServiceURL(jmxServiceUrlStr);
-            try (OutputStream os = new FileOutputStream(bootstrapFile)) {
+            if (sandbox != null) {
+                jmxServiceUrl = PortAllocator.withPort(jmxServiceUrl, PortAllocator.getInstance().nextPort());
+                sandbox.rewritePaths(bootstrapProperties);
+                bootstrapProperties.setProperty("jmxserviceurl", jmxServiceUrl.toString());
+            }
+            try (OutputStream os = new FileOutputStream(getConfigFile("bootstrap.properties"))) {
                 bootstrapProperties.store(os, null);
             } catch (Exception e) {
                 throw new RuntimeException(e);
@@ -87,71 +241,206 @@ public class SingleAdapterFunctionalTest extends AbstractAdapterFunctionalTest {
             } catch (Exception e) {
                 throw new RuntimeException(e);
             }
+            putBackendVariables(variablesProperties);
             customiseVariablesIfExists(variablesProperties);
-            try (OutputStream os = new FileOutputStream(variablesFile)) {
+            try (OutputStream os = new FileOutputStream(getConfigFile("variables.properties"))) {
                 variablesProperties.store(os, null);
             } catch (Exception e) {
                 throw new RuntimeException(e);
             }
         }
+        if (startupTimings != null) startupTimings.mark(StartupTimings.Phase.CONFIG_REWRITE);
+    }
+
+    /**
+     * @return the file in ./config that the adapter will use, or its writable copy in the sandbox if there is one.
+     */
+    protected File getConfigFile(String name) {
+        return sandbox != null ? sandbox.writable(name) : new File("./config/" + name);
     }
 
     protected void customiseBootstrapProperties(Properties props) {
         props.put("webServerPort", String.valueOf(serverPort));
     }
 
+    /**
+     * Apply to the bootstrap properties whatever {@link #customiseBootstrapProperties(Properties)} changes that makes
+     * a difference to the adapter, without its side effects (such as writing files), so that the
+     * {@link SharedAdapterPool} only shares adapters that were customised alike. Nothing by default, since the web
+     * server port is not part of the fingerprint.
+     */
+    protected void fingerprintBootstrapProperties(Properties props) {
+    }
+
+    private void putBackendVariables(Properties props) {
+        backends.forEach((variable, backend) -> props.setProperty(variable, backend.getUrl()));
+    }
+
     protected void customiseVariablesIfExists(Properties props) {
         props.put("sysprop.jetty.http.port", String.valueOf(serverPort));
     }
 
     protected void withReservedSocket(Consumer<ServerSocket> reservedFn, Callable<Void> afterClosedFn) throws Exception {
-        try (ServerSocket serverSocket = new ServerSocket(0)) {
+        try (ServerSocket serverSocket = reserveSocket()) {
             reservedFn.accept(serverSocket);
         }
         if (afterClosedFn != null) afterClosedFn.call();
     }
 
+    protected ServerSocket reserveSocket() throws IOException {
+        return new ServerSocket(useSandbox ? PortAllocator.getInstance().nextPort() : 0);
+    }
+
     protected Void launchAdapter() throws Exception{
-        InterlokLauncher.main(new String[] {"./config/bootstrap.properties"});
+        InterlokLauncher.main(new String[] {getConfigFile("bootstrap.properties").getPath()});
         return null;
     }
 
     protected void connectJMX() throws Exception {
         if (jmxServiceUrl == null) throw new RuntimeException("JMX service URL not set");
-        jmxConnector = JMXConnectorFactory.connect(jmxServiceUrl);
-        ObjectInstance adapterRegistry = jmxConnector.getMBeanServerConnection().getObjectInstance(ObjectName.getInstance(AdapterRegistryMBean.STANDARD_REGISTRY_JMX_NAME));
-        AdapterRegistryMBean adapterRegistryProxy = JMX.newMBeanProxy(jmxConnector.getMBeanServerConnection(), adapterRegistry.getObjectName(), AdapterRegistryMBean.class);
-        assert adapterRegistryProxy != null : "AdapterRegistry not found";
-        ObjectName adapterName = adapterRegistryProxy.getAdapters().stream().findFirst().orElseThrow();
-        adapterManagerMBean = JMX.newMBeanProxy(jmxConnector.getMBeanServerConnection(), adapterName, AdapterManagerMBean.class);
-        assert adapterManagerMBean != null : "AdapterManagerMBean not found";
+        jmx = AdapterJmx.connect(jmxServiceUrl);
+        jmxConnector = jmx.getConnector();
+        adapterObjectName = jmx.getAdapterName();
+        adapterManagerMBean = jmx.getAdapter();
+        if (startupTimings != null) startupTimings.mark(StartupTimings.Phase.JMX_CONNECT);
     }
 
     protected void waitForAdapterStarted() throws Exception {
-        long startTime = System.currentTimeMillis();
-        while(!adapterManagerMBean.getComponentState().getClass().equals(StartedState.class)) {
-            Thread.sleep(adapterStartWaitTime);
-            long totalWaitTime = System.currentTimeMillis() - startTime;
-            if (totalWaitTime >= adapterStartMaxWaitTime) {
-                throw new RuntimeException("AdapterManagerMBean wait time exceeded");
-            }
+        AdapterReadiness readiness = new AdapterReadiness(jmx.getConnection(), adapterObjectName, adapterManagerMBean);
+        if (startupTimings != null) readiness.withStateObserver(startupTimings::observe);
+        readiness.awaitStarted(adapterStartWaitTime, System.currentTimeMillis() + adapterStartMaxWaitTime);
+        if (startupTimings != null) startupTimings.finish();
+    }
+
+    /**
+     * Replace the running adapter's configuration with the given adapter XML and wait for it to start again, without
+     * relaunching; variables are not substituted.
+     */
+    protected void reconfigureAdapter(String adapterXml) throws Exception {
+        jmx.replaceAdapter(adapterXml, adapterCloseMaxWaitTime);
+        restartAfterReconfigure();
+    }
+
+    /**
+     * Apply the given variables on top of ./config/variables.properties (and {@link #customiseVariablesIfExists}),
+     * then reload the adapter from its bootstrap configuration and wait for it to start again, without relaunching.
+     */
+    protected void reconfigureAdapter(Properties variables) throws Exception {
+        Properties variablesProperties = loadProperties(new File("./config/variables.properties"));
+        putBackendVariables(variablesProperties);
+        customiseVariablesIfExists(variablesProperties);
+        variablesProperties.putAll(variables);
+        try (OutputStream os = new FileOutputStream(getConfigFile("variables.properties"))) {
+            variablesProperties.store(os, null);
         }
+        jmx.reloadAdapter(adapterCloseMaxWaitTime);
+        restartAfterReconfigure();
+    }
+
+    /**
+     * Start the replaced adapter, which has a new ObjectName, within {@link #adapterStartMaxWaitTime} of the old one
+     * closing; a pooled adapter picks up the new MBeans too, so that the pool can shut it down.
+     */
+    private void restartAfterReconfigure() throws Exception {
+        long deadline = System.currentTimeMillis() + adapterStartMaxWaitTime;
+        if (pooledAdapter != null) {
+            pooledAdapter.restartAfterReconfigure(adapterStartWaitTime, deadline);
+            adapterObjectName = pooledAdapter.adapterObjectName;
+            adapterManagerMBean = pooledAdapter.adapterManagerMBean;
+            return;
+        }
+        adapterObjectName = jmx.getAdapterName();
+        adapterManagerMBean = jmx.getAdapter();
+        adapterManagerMBean.requestStart(Math.max(1, deadline - System.currentTimeMillis()));
+        new AdapterReadiness(jmx.getConnection(), adapterObjectName, adapterManagerMBean)
+                .awaitStarted(adapterStartWaitTime, deadline);
     }
 
     protected void shutdownAdapter() throws Exception {
+        if (metricsSampler != null) {
+            metricsSampler.stop();
+        }
+        if (adapterPool != null && pooledAdapter != null) {
+            adapterPool.release(pooledAdapter);
+            return;
+        }
         try {
             if (adapterManagerMBean != null) {
                 adapterManagerMBean.requestClose(adapterCloseMaxWaitTime);
             }
         } finally {
-            if (jmxConnector != null) {
-                jmxConnector.close();
+            if (jmx != null) {
+                jmx.close();
+            }
+        }
+    }
+
+    /**
+     * @return a flight recording of the adapter's JVM, written to {@code <reports>/jfr/<test class>-<name>.jfr}; see
+     * {@link FlightRecording}.
+     */
+    protected FlightRecording flightRecording(String name) {
+        return new FlightRecording(() -> {
+            try {
+                return jmx.getConnection();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }, getClass().getName() + "-" + name);
+    }
+
+    /**
+     * @return a check that runs the workload against the adapter in repeated rounds and fails if its resources keep
+     * growing; see {@link LeakCheck}.
+     */
+    protected LeakCheck leakCheck(LeakCheck.Workload workload) {
+        return new LeakCheck(() -> {
+            try {
+                return jmx.getConnection();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
             }
+        }, workload).withName(getClass().getName());
+    }
+
+    /**
+     * Declare a downstream HTTP service for the adapter to call; it is started before the adapter, and its URL is
+     * added to the adapter's variables (before {@link #customiseVariablesIfExists(Properties)}) as the named variable.
+     * Call it from a field initialiser, and add its routes there too; a route's latency and faults can be changed
+     * while the tests run.
+     */
+    protected DegradedBackend backend(String variableName) {
+        return backends.computeIfAbsent(variableName, name -> new DegradedBackend());
+    }
+
+    /**
+     * @return the dispatcher for waiting on files created, modified or deleted by the adapter, started on first use.
+     */
+    protected synchronized FileEventDispatcher getFileEvents() throws IOException {
+        if (fileEvents == null) {
+            fileEvents = new FileEventDispatcher();
         }
+        return fileEvents;
+    }
+
+    /**
+     * @return a harness that writes files to the consume directory of an fs-consumer workflow and measures how fast
+     * their outputs appear in the produce directory.
+     */
+    protected FileIngestHarness fileIngest(Path consumeDir, Path produceDir) throws IOException {
+        return new FileIngestHarness(getFileEvents(), consumeDir, produceDir).withLabel(getClass().getSimpleName());
     }
 
-    protected WatchKey waitForFileEvent(Path path, long timeOutMs, WatchEvent.Kind<?>... eventKinds) throws Exception {
-        path.register(watchService, eventKinds);
-        return watchService.poll(timeOutMs, TimeUnit.MILLISECONDS);
+    /**
+     * Wait for an event on a file in the directory whose name matches the glob, e.g. one written by an fs-producer; a
+     * matching file that is already there counts as created. See
+     * {@link FileEventDispatcher#awaitFileEvent(Path, String, Duration, WatchEvent.Kind[])}.
+     *
+     * @param eventKinds the kinds of event; all of create, modify and delete if none are given.
+     * @return the first matching file.
+     * @throws java.util.concurrent.TimeoutException if there is no matching event within the timeout.
+     */
+    protected Path waitForFileEvent(Path directory, String glob, long timeOutMs, WatchEvent.Kind<?>... eventKinds) throws Exception {
+        return getFileEvents().awaitFileEvent(directory, glob, Duration.ofMillis(timeOutMs), eventKinds);
     }
 }
@@ -0,0 +1,45 @@
+package com.adaptris.testing;
+
+import java.net.InetSocketAddress;
+
+/**
+ * A lightweight in-process replacement for a service that would otherwise run in a container, see
+ * {@link InProcessEnvironment}.
+ */
+public interface StandIn extends AutoCloseable {
+
+    /**
+     * Start listening on an ephemeral port.
+     *
+     * @return the address the stand-in is listening on.
+     */
+    InetSocketAddress start() throws Exception;
+
+    /**
+     * @return an HTTP server with no handlers; add them with {@link HttpStandIn#withHandler}.
+     */
+    static HttpStandIn http() {
+        return new HttpStandIn();
+    }
+
+    /**
+     * @return an HTTP server that echoes every request body back.
+     */
+    static HttpStandIn httpEcho() {
+        return new HttpStandIn().withEcho("*");
+    }
+
+    /**
+     * @return a TCP server that echoes every byte it receives.
+     */
+    static TcpStandIn tcpEcho() {
+        return new TcpStandIn(true);
+    }
+
+    /**
+     * @return a TCP server that reads and discards everything it receives.
+     */
+    static TcpStandIn tcpSink() {
+        return new TcpStandIn(false);
+    }
+}
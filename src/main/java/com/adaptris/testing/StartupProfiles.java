@@ -0,0 +1,57 @@
+package com.adaptris.testing;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.LongSummaryStatistics;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Records how long adapters take to start under each {@link LaunchProfile}, in {@code <reports>/startup/profiles.csv}.
+ */
+public class StartupProfiles {
+    private static final String HEADER = "timestamp,profile,cds,position,startupMillis";
+
+    private static final Logger log = LoggerFactory.getLogger(StartupProfiles.class);
+
+    public static File getReportFile() {
+        return TestReports.reportFile("startup", "profiles.csv");
+    }
+
+    /**
+     * Append a startup time to the report; a report that cannot be written is logged, it does not fail the adapter.
+     */
+    public static synchronized void record(String profile, String cds, int position, long startupMillis) {
+        File report = getReportFile();
+        boolean exists = report.exists();
+        try (Writer writer = new FileWriter(report, true)) {
+            if (!exists) writer.write(HEADER + System.lineSeparator());
+            writer.write(String.join(",", String.valueOf(System.currentTimeMillis()), profile, cds,
+                    String.valueOf(position), String.valueOf(startupMillis)) + System.lineSeparator());
+        } catch (IOException e) {
+            log.warn("Failed to record startup time in {}", report, e);
+        }
+    }
+
+    /**
+     * @return the startup time statistics recorded so far for each profile and AppCDS state, keyed as e.g.
+     * {@code fastStartup/USING}.
+     */
+    public static synchronized Map<String, LongSummaryStatistics> summarise() throws IOException {
+        Map<String, LongSummaryStatistics> summary = new TreeMap<>();
+        File report = getReportFile();
+        if (!report.exists()) return summary;
+        for (String line : Files.readAllLines(report.toPath())) {
+            String[] fields = line.split(",");
+            if (fields.length < 5 || HEADER.equals(line)) continue;
+            summary.computeIfAbsent(fields[1] + "/" + fields[2], key -> new LongSummaryStatistics()).accept(Long.parseLong(fields[4]));
+        }
+        return summary;
+    }
+}
@@ -0,0 +1,201 @@
+package com.adaptris.testing;
+
+import com.adaptris.core.ComponentState;
+import com.adaptris.core.InitialisedState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Times the phases of an adapter's startup and writes them to {@code <reports>/startup/phases/<name>.json}.
+ * <p>
+ * If {@link #BASELINE_DIR_PROPERTY} points at a directory of earlier results (e.g. a copy of a previous run's
+ * {@code startup/phases} directory), each phase is compared with the file of the same name there. A phase that is
+ * more than {@link #REGRESSION_PERCENT_PROPERTY} percent (default 25) and {@link #REGRESSION_MIN_MILLIS_PROPERTY} ms
+ * (default 200) slower than its baseline is logged as a warning, or fails the startup if
+ * {@link #FAIL_ON_REGRESSION_PROPERTY} is true.
+ * </p>
+ */
+public class StartupTimings {
+    public static final String BASELINE_DIR_PROPERTY = "interlok.testing.startup.baseline";
+    public static final String REGRESSION_PERCENT_PROPERTY = "interlok.testing.startup.regressionPercent";
+    public static final String REGRESSION_MIN_MILLIS_PROPERTY = "interlok.testing.startup.regressionMinMillis";
+    public static final String FAIL_ON_REGRESSION_PROPERTY = "interlok.testing.startup.failOnRegression";
+
+    private static final Logger log = LoggerFactory.getLogger(StartupTimings.class);
+
+    private static final Pattern JSON_NUMBER = Pattern.compile("\"(\\w+)\"\\s*:\\s*(-?\\d+)");
+
+    public enum Phase {
+        CONFIG_REWRITE("configRewrite"),
+        LAUNCH("launch"),
+        JMX_CONNECT("jmxConnect"),
+        INITIALISED("initialised"),
+        STARTED("started");
+
+        private final String key;
+
+        Phase(String key) {
+            this.key = key;
+        }
+
+        public String getKey() {
+            return key;
+        }
+    }
+
+    private final String name;
+    private final EnumMap<Phase, Long> marks = new EnumMap<>(Phase.class);
+    private long start = -1;
+
+    /**
+     * @param name the name of the results file, e.g. the test class and adapter position.
+     */
+    public StartupTimings(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Start timing from now, forgetting any earlier marks.
+     */
+    public synchronized StartupTimings begin() {
+        start = System.nanoTime();
+        marks.clear();
+        return this;
+    }
+
+    /**
+     * Start timing from now unless timing has already started.
+     */
+    public synchronized StartupTimings beginIfIdle() {
+        return start < 0 ? begin() : this;
+    }
+
+    /**
+     * Record the end of a phase, unless it has already been recorded; starts timing if it has not been started.
+     */
+    public synchronized void mark(Phase phase) {
+        if (start < 0) begin();
+        marks.putIfAbsent(phase, System.nanoTime() - start);
+    }
+
+    /**
+     * Record the adapter state seen while waiting for it to start; used as an
+     * {@link AdapterReadiness#withStateObserver(java.util.function.Consumer) observer}. The initialised phase is only
+     * recorded if the adapter is seen in {@link InitialisedState}; a start that goes straight past it has none.
+     */
+    public void observe(ComponentState state) {
+        if (state instanceof InitialisedState) mark(Phase.INITIALISED);
+    }
+
+    /**
+     * @return how long the phase took, from the end of the previous recorded phase; -1 if it was not recorded.
+     */
+    public synchronized long getMillis(Phase phase) {
+        Long end = marks.get(phase);
+        if (end == null) return -1;
+        long previous = 0;
+        for (Map.Entry<Phase, Long> mark : marks.entrySet()) {
+            if (mark.getKey() == phase) break;
+            previous = mark.getValue();
+        }
+        return (end - previous) / 1_000_000;
+    }
+
+    /**
+     * @return the time from {@link #begin()} to the last recorded phase.
+     */
+    public synchronized long getTotalMillis() {
+        return marks.values().stream().mapToLong(Long::longValue).max().orElse(0) / 1_000_000;
+    }
+
+    public synchronized Map<String, Long> toMap() {
+        Map<String, Long> values = new LinkedHashMap<>();
+        for (Phase phase : marks.keySet()) {
+            values.put(phase.getKey(), getMillis(phase));
+        }
+        values.put("total", getTotalMillis());
+        return values;
+    }
+
+    /**
+     * Mark the adapter as started, write the results and check them against the baseline.
+     *
+     * @throws RuntimeException if a phase regressed and {@link #FAIL_ON_REGRESSION_PROPERTY} is true.
+     */
+    public void finish() {
+        mark(Phase.STARTED);
+        write();
+        synchronized (this) {
+            start = -1;
+        }
+        List<String> regressions = checkBaseline();
+        if (regressions.isEmpty()) return;
+        String message = "Startup of " + name + " regressed: " + String.join(", ", regressions);
+        if (Boolean.getBoolean(FAIL_ON_REGRESSION_PROPERTY)) {
+            throw new RuntimeException(message);
+        }
+        log.warn(message);
+    }
+
+    public File write() {
+        File output = TestReports.reportFile("startup", "phases", name + ".json");
+        StringJoiner json = new StringJoiner(",\n", "{\n", "\n}\n");
+        json.add("  \"name\": \"" + name.replace("\\", "\\\\").replace("\"", "\\\"") + "\"");
+        json.add("  \"timestamp\": " + System.currentTimeMillis());
+        toMap().forEach((key, millis) -> json.add("  \"" + key + "\": " + millis));
+        try {
+            Files.write(output.toPath(), json.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return output;
+    }
+
+    /**
+     * @return a description of each phase that is slower than the baseline allows; empty if there is no baseline.
+     */
+    public List<String> checkBaseline() {
+        String baselineDir = System.getProperty(BASELINE_DIR_PROPERTY);
+        if (baselineDir == null) return List.of();
+        File baselineFile = new File(baselineDir, name + ".json");
+        if (!baselineFile.exists()) return List.of();
+        Map<String, Long> baseline = read(baselineFile);
+        double percent = Double.parseDouble(System.getProperty(REGRESSION_PERCENT_PROPERTY, "25"));
+        long minMillis = Long.getLong(REGRESSION_MIN_MILLIS_PROPERTY, 200);
+        List<String> regressions = new ArrayList<>();
+        toMap().forEach((key, millis) -> {
+            Long expected = baseline.get(key);
+            if (expected == null || expected < 0 || millis < 0) return;
+            if (millis - expected > minMillis && millis > expected * (1 + percent / 100)) {
+                regressions.add(String.format("%s %dms (baseline %dms, +%.0f%%)", key, millis, expected,
+                        expected == 0 ? 100.0 : (millis - expected) * 100.0 / expected));
+            }
+        });
+        return regressions;
+    }
+
+    static Map<String, Long> read(File file) {
+        Map<String, Long> values = new LinkedHashMap<>();
+        try {
+            Matcher matcher = JSON_NUMBER.matcher(Files.readString(file.toPath()));
+            while (matcher.find()) {
+                values.put(matcher.group(1), Long.parseLong(matcher.group(2)));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return values;
+    }
+}
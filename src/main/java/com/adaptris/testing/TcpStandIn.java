@@ -0,0 +1,94 @@
+package com.adaptris.testing;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A TCP server standing in for a socket based service; it either echoes what it receives or discards it, and counts
+ * connections and bytes either way.
+ */
+public class TcpStandIn implements StandIn {
+    private final boolean echo;
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final Set<Socket> open = ConcurrentHashMap.newKeySet();
+    private ServerSocket serverSocket;
+    private ExecutorService executor;
+
+    public TcpStandIn(boolean echo) {
+        this.echo = echo;
+    }
+
+    @Override
+    public InetSocketAddress start() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "tcp-stand-in-" + serverSocket.getLocalPort());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.execute(this::accept);
+        return (InetSocketAddress) serverSocket.getLocalSocketAddress();
+    }
+
+    public int getConnections() {
+        return connections.get();
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                connections.incrementAndGet();
+                open.add(socket);
+                executor.execute(() -> serve(socket));
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        byte[] buffer = new byte[8192];
+        try (socket; InputStream in = socket.getInputStream(); OutputStream out = socket.getOutputStream()) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                bytesReceived.addAndGet(read);
+                if (echo) {
+                    out.write(buffer, 0, read);
+                    out.flush();
+                }
+            }
+        } catch (IOException e) {
+            // the client went away, or the stand-in is closing.
+        } finally {
+            open.remove(socket);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (serverSocket == null) return;
+        serverSocket.close();
+        for (Socket socket : open) {
+            socket.close();
+        }
+        executor.shutdownNow();
+        serverSocket = null;
+    }
+}
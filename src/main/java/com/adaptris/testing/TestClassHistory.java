@@ -0,0 +1,140 @@
+package com.adaptris.testing;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * How long each functional test class took in earlier runs, and the fingerprint of the adapter configuration it
+ * used, so that {@link HistoryAwareClassOrderer} (and the {@code functionalTest} shards in {@code common.gradle}) can
+ * schedule classes.
+ * <p>
+ * The history is a CSV file ({@code timestamp,class,fingerprint,durationMs}) named by {@link #HISTORY_PROPERTY};
+ * nothing is recorded if it is not set. Every fork appends to the same file, under a file lock. A class's expected
+ * duration is the mean of its last {@link #RUNS_TO_AVERAGE} runs, and its fingerprint the most recent one. Once the
+ * file grows past {@link #MAX_HISTORY_BYTES} it is compacted to those runs.
+ * </p>
+ */
+public class TestClassHistory {
+    public static final String HISTORY_PROPERTY = "interlok.testing.history";
+    public static final int RUNS_TO_AVERAGE = 5;
+    public static final long MAX_HISTORY_BYTES = 1024 * 1024;
+
+    private static final Logger log = LoggerFactory.getLogger(TestClassHistory.class);
+
+    private static final String HEADER = "timestamp,class,fingerprint,durationMs";
+
+    /**
+     * A class's expected duration and configuration.
+     */
+    public static class Entry {
+        private final String fingerprint;
+        private final long durationMillis;
+
+        public Entry(String fingerprint, long durationMillis) {
+            this.fingerprint = fingerprint;
+            this.durationMillis = durationMillis;
+        }
+
+        public String getFingerprint() {
+            return fingerprint;
+        }
+
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+    }
+
+    public static File getHistoryFile() {
+        String history = System.getProperty(HISTORY_PROPERTY);
+        return history == null ? null : new File(history);
+    }
+
+    /**
+     * Append a run of the test class to the history, if there is one; problems writing it are only warned about.
+     */
+    public static void record(Class<?> testClass, String fingerprint, long durationMillis) {
+        File history = getHistoryFile();
+        if (history == null) return;
+        String line = String.join(",", String.valueOf(System.currentTimeMillis()), testClass.getName(),
+                fingerprint == null ? "" : fingerprint, String.valueOf(durationMillis)) + System.lineSeparator();
+        try {
+            Files.createDirectories(history.getAbsoluteFile().getParentFile().toPath());
+            try (FileChannel channel = FileChannel.open(history.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                 FileLock ignored = channel.lock()) {
+                if (channel.size() > MAX_HISTORY_BYTES) compact(channel);
+                String text = channel.size() == 0 ? HEADER + System.lineSeparator() + line : line;
+                channel.write(ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)), channel.size());
+            }
+        } catch (IOException e) {
+            log.warn("Could not record {} in {}: {}", testClass.getName(), history, e.getMessage());
+        }
+    }
+
+    /**
+     * Rewrite the locked history with only the last {@link #RUNS_TO_AVERAGE} runs of each class, in their order.
+     */
+    private static void compact(FileChannel channel) throws IOException {
+        ByteBuffer content = ByteBuffer.allocate((int) channel.size());
+        while (content.hasRemaining() && channel.read(content, content.position()) >= 0) {
+            // read the whole file.
+        }
+        List<String> lines = new ArrayList<>(Arrays.asList(new String(content.array(), 0, content.position(), StandardCharsets.UTF_8).split("\\R")));
+        Map<String, Integer> kept = new HashMap<>();
+        List<String> compacted = new ArrayList<>();
+        Collections.reverse(lines);
+        for (String line : lines) {
+            String[] fields = line.split(",", -1);
+            if (fields.length != 4 || line.startsWith(HEADER)) continue;
+            if (kept.merge(fields[1], 1, Integer::sum) <= RUNS_TO_AVERAGE) compacted.add(line);
+        }
+        compacted.add(HEADER);
+        Collections.reverse(compacted);
+        channel.truncate(0);
+        channel.write(ByteBuffer.wrap((String.join(System.lineSeparator(), compacted) + System.lineSeparator()).getBytes(StandardCharsets.UTF_8)), 0);
+    }
+
+    /**
+     * @return the expected duration and fingerprint of each class in the history; empty if there is no history.
+     */
+    public static Map<String, Entry> load() {
+        File history = getHistoryFile();
+        return history == null || !history.exists() ? Map.of() : load(history.toPath());
+    }
+
+    public static Map<String, Entry> load(Path history) {
+        Map<String, Deque<Long>> durations = new HashMap<>();
+        Map<String, String> fingerprints = new HashMap<>();
+        try {
+            for (String line : Files.readAllLines(history, StandardCharsets.UTF_8)) {
+                String[] fields = line.split(",", -1);
+                if (fields.length != 4 || line.startsWith(HEADER)) continue;
+                try {
+                    Deque<Long> runs = durations.computeIfAbsent(fields[1], key -> new ArrayDeque<>());
+                    runs.addLast(Long.parseLong(fields[3]));
+                    if (runs.size() > RUNS_TO_AVERAGE) runs.removeFirst();
+                    fingerprints.put(fields[1], fields[2]);
+                } catch (NumberFormatException e) {
+                    // a line cut short by a fork that was killed.
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Could not read {}: {}", history, e.getMessage());
+            return Map.of();
+        }
+        Map<String, Entry> entries = new HashMap<>();
+        durations.forEach((className, runs) -> entries.put(className, new Entry(fingerprints.get(className),
+                Math.round(runs.stream().mapToLong(Long::longValue).average().orElse(0)))));
+        return entries;
+    }
+}
@@ -0,0 +1,28 @@
+package com.adaptris.testing;
+
+import java.net.InetSocketAddress;
+
+/**
+ * The services a {@link DockerComposeFunctionalTest} depends on, e.g. the containers of a docker compose file or
+ * in-process stand-ins for them.
+ * <p>
+ * Which implementation is used is chosen with {@link #MODE_PROPERTY}: {@code compose} (the default) for
+ * {@link ComposeEnvironment}, or {@code inProcess} for {@link InProcessEnvironment}.
+ * </p>
+ */
+public interface TestEnvironment extends AutoCloseable {
+    String MODE_PROPERTY = "interlok.testing.environment";
+    String COMPOSE = "compose";
+    String IN_PROCESS = "inProcess";
+
+    void start() throws Exception;
+
+    /**
+     * @return the address at which the given port of the given service can be reached from the test.
+     */
+    InetSocketAddress getServiceAddress(String serviceName, int port);
+
+    static String getMode() {
+        return System.getProperty(MODE_PROPERTY, COMPOSE);
+    }
+}
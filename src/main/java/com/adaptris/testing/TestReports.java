@@ -0,0 +1,35 @@
+package com.adaptris.testing;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Where the library writes its reports (metrics, timings, recordings).
+ * <p>
+ * The functionalTest task sets {@link #REPORTS_DIR_PROPERTY} to {@code build/reports/interlok-testing}; otherwise
+ * reports are written to {@code ./reports} under the working directory.
+ * </p>
+ */
+public class TestReports {
+    public static final String REPORTS_DIR_PROPERTY = "interlok.testing.reports.dir";
+
+    public static Path getReportsDir() {
+        return Paths.get(System.getProperty(REPORTS_DIR_PROPERTY, "reports"));
+    }
+
+    /**
+     * @return the report file at the given path under the reports directory, creating its parent directories.
+     */
+    public static File reportFile(String first, String... more) {
+        Path path = getReportsDir().resolve(Paths.get(first, more));
+        try {
+            Files.createDirectories(path.getParent());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return path.toFile();
+    }
+}
@@ -0,0 +1,48 @@
+package com.adaptris.testing;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BackoffTest {
+
+    @Test
+    public void testDelaysGrowUpToTheMaximum() {
+        Backoff backoff = new Backoff(5, 50, 2.0);
+        assertEquals(5, backoff.nextDelay());
+        assertEquals(10, backoff.nextDelay());
+        assertEquals(20, backoff.nextDelay());
+        assertEquals(40, backoff.nextDelay());
+        assertEquals(50, backoff.nextDelay());
+        assertEquals(50, backoff.nextDelay());
+    }
+
+    @Test
+    public void testReset() {
+        Backoff backoff = new Backoff(100);
+        backoff.nextDelay();
+        backoff.nextDelay();
+        backoff.reset();
+        assertEquals(Backoff.DEFAULT_INITIAL_DELAY, backoff.nextDelay());
+    }
+
+    @Test
+    public void testArgumentsAreClamped() {
+        assertEquals(3, new Backoff(10, 3, 2.0).nextDelay());
+        assertEquals(1, new Backoff(0, 0, 2.0).nextDelay());
+        Backoff constant = new Backoff(7, 100, 0.5);
+        assertEquals(7, constant.nextDelay());
+        assertEquals(7, constant.nextDelay());
+    }
+
+    @Test
+    public void testSleepStopsAtDeadline() throws Exception {
+        Backoff backoff = new Backoff(10_000, 10_000, 2.0);
+        long start = System.currentTimeMillis();
+        backoff.sleep(start + 50);
+        assertTrue(System.currentTimeMillis() - start < 5_000);
+        long before = System.currentTimeMillis();
+        backoff.sleep(before - 1);
+        assertTrue(System.currentTimeMillis() - before < 5_000);
+    }
+}
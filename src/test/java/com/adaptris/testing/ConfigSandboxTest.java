@@ -0,0 +1,52 @@
+package com.adaptris.testing;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConfigSandboxTest {
+    private final Path cwd = Paths.get("").toAbsolutePath();
+    private final ConfigSandbox sandbox = new ConfigSandbox(cwd.resolve("config"), cwd.resolve("sandbox/fork-0/Test"));
+
+    @Test
+    public void testRewritesSourceFilesIntoSandbox() {
+        Properties properties = new Properties();
+        properties.setProperty("adapterConfigUrl", "file://localhost/./config/adapter.xml");
+        properties.setProperty("variables", "./config/variables.properties");
+        properties.setProperty("license", "config/license.properties");
+        sandbox.rewritePaths(properties);
+
+        Path sandboxDir = sandbox.getSandboxDir();
+        assertEquals(sandboxDir.resolve("adapter.xml").toUri().toString(), properties.getProperty("adapterConfigUrl"));
+        assertEquals(sandboxDir.resolve("variables.properties").toString(), properties.getProperty("variables"));
+        assertEquals(sandboxDir.resolve("license.properties").toString(), properties.getProperty("license"));
+    }
+
+    @Test
+    public void testMakesOtherRelativePathsAbsolute() {
+        Properties properties = new Properties();
+        properties.setProperty("relative", "file:../shared/keystore.jks");
+        properties.setProperty("data", "./data/in");
+        sandbox.rewritePaths(properties);
+
+        assertEquals(cwd.resolve("../shared/keystore.jks").normalize().toUri().toString(), properties.getProperty("relative"));
+        assertEquals(cwd.resolve("data/in").toString(), properties.getProperty("data"));
+    }
+
+    @Test
+    public void testLeavesOtherValuesAlone() {
+        Properties properties = new Properties();
+        properties.setProperty("absolute", "file:///opt/interlok/config/adapter.xml");
+        properties.setProperty("port", "8080");
+        properties.setProperty("url", "http://localhost:8080/api");
+        sandbox.rewritePaths(properties);
+
+        assertEquals("file:///opt/interlok/config/adapter.xml", properties.getProperty("absolute"));
+        assertEquals("8080", properties.getProperty("port"));
+        assertEquals("http://localhost:8080/api", properties.getProperty("url"));
+    }
+}
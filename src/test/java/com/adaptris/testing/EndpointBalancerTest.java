@@ -0,0 +1,52 @@
+package com.adaptris.testing;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EndpointBalancerTest {
+    private static final List<String> URLS = List.of("http://localhost:1/", "http://localhost:2/", "http://localhost:3/");
+
+    @Test
+    public void testRoundRobin() {
+        EndpointBalancer balancer = new EndpointBalancer(URLS, EndpointBalancer.Strategy.ROUND_ROBIN);
+        for (int i = 0; i < 6; i++) {
+            assertEquals(URLS.get(i % 3), balancer.acquire().getBaseUrl());
+        }
+        for (EndpointBalancer.Endpoint endpoint : balancer.getEndpoints()) {
+            assertEquals(2, endpoint.getSent());
+            assertEquals(2, endpoint.getOutstanding());
+        }
+    }
+
+    @Test
+    public void testLeastOutstandingAvoidsBusyEndpoint() {
+        EndpointBalancer balancer = new EndpointBalancer(URLS, EndpointBalancer.Strategy.LEAST_OUTSTANDING);
+        EndpointBalancer.Endpoint slow = balancer.getEndpoints().get(0);
+        for (int i = 0; i < 30; i++) {
+            EndpointBalancer.Endpoint endpoint = balancer.acquire();
+            if (endpoint != slow) endpoint.release();
+        }
+        assertEquals(1, slow.getSent());
+        assertEquals(29, balancer.getEndpoints().get(1).getSent() + balancer.getEndpoints().get(2).getSent());
+    }
+
+    @Test
+    public void testLeastOutstandingSpreadsTies() {
+        EndpointBalancer balancer = new EndpointBalancer(URLS, EndpointBalancer.Strategy.LEAST_OUTSTANDING);
+        for (int i = 0; i < 30; i++) {
+            balancer.acquire().release();
+        }
+        for (EndpointBalancer.Endpoint endpoint : balancer.getEndpoints()) {
+            assertEquals(10, endpoint.getSent());
+            assertEquals(0, endpoint.getOutstanding());
+        }
+    }
+
+    @Test
+    public void testNeedsEndpoints() {
+        assertThrows(IllegalArgumentException.class, () -> new EndpointBalancer(List.of(), EndpointBalancer.Strategy.ROUND_ROBIN));
+    }
+}
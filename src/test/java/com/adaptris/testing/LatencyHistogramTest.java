@@ -0,0 +1,94 @@
+package com.adaptris.testing;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testSmallValuesAreExact() {
+        for (int value = 0; value < 128; value++) {
+            assertEquals(value, LatencyHistogram.indexFor(value));
+            assertEquals(value, LatencyHistogram.highestEquivalentValue(value));
+        }
+    }
+
+    @Test
+    public void testBucketBoundaries() {
+        assertEquals(128, LatencyHistogram.indexFor(128));
+        assertEquals(128, LatencyHistogram.indexFor(129));
+        assertEquals(129, LatencyHistogram.highestEquivalentValue(128));
+        assertEquals(255, LatencyHistogram.highestEquivalentValue(LatencyHistogram.indexFor(255)));
+        assertEquals(259, LatencyHistogram.highestEquivalentValue(LatencyHistogram.indexFor(256)));
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.highestEquivalentValue(LatencyHistogram.indexFor(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void testBucketsAreWithinPrecision() {
+        for (long value = 1; value > 0 && value < Long.MAX_VALUE / 3; value = value * 3 + 1) {
+            long highest = LatencyHistogram.highestEquivalentValue(LatencyHistogram.indexFor(value));
+            assertTrue(highest >= value, "bucket for " + value + " ends at " + highest);
+            assertTrue(highest - value <= value / 64, "bucket for " + value + " ends at " + highest);
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int value = 1; value <= 100; value++) {
+            histogram.recordValue(value);
+        }
+        assertEquals(1, histogram.getValueAtPercentile(0));
+        assertEquals(50, histogram.getValueAtPercentile(50));
+        assertEquals(99, histogram.getValueAtPercentile(99));
+        assertEquals(100, histogram.getValueAtPercentile(100));
+        assertEquals(100, histogram.getValueAtPercentile(150));
+    }
+
+    @Test
+    public void testPercentileNeverExceedsMax() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.recordValue(1000);
+        assertEquals(1000, histogram.getValueAtPercentile(50));
+        histogram.recordValue(10_000);
+        long p99 = histogram.getValueAtPercentile(99);
+        assertTrue(p99 >= 10_000 && p99 <= 10_000 + 10_000 / 64);
+    }
+
+    @Test
+    public void testSummaryStatistics() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getTotalCount());
+        assertEquals(0, histogram.getMin());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0.0, histogram.getMean(), 0.0);
+        assertEquals(0, histogram.getValueAtPercentile(50));
+
+        histogram.recordValue(10);
+        histogram.recordValue(20);
+        histogram.recordValue(-5);
+        assertEquals(3, histogram.getTotalCount());
+        assertEquals(0, histogram.getMin());
+        assertEquals(20, histogram.getMax());
+        assertEquals(10.0, histogram.getMean(), 0.001);
+    }
+
+    @Test
+    public void testAdd() {
+        LatencyHistogram first = new LatencyHistogram();
+        LatencyHistogram second = new LatencyHistogram();
+        for (int value = 1; value <= 50; value++) {
+            first.recordValue(value);
+            second.recordValue(value + 50);
+        }
+        first.add(second);
+        assertEquals(100, first.getTotalCount());
+        assertEquals(1, first.getMin());
+        assertEquals(100, first.getMax());
+        assertEquals(50.5, first.getMean(), 0.001);
+        assertEquals(75, first.getValueAtPercentile(75));
+        first.add(new LatencyHistogram());
+        assertEquals(1, first.getMin());
+    }
+}
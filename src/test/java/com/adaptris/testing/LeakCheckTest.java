@@ -0,0 +1,52 @@
+package com.adaptris.testing;
+
+import com.adaptris.testing.LeakCheck.Metric;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LeakCheckTest {
+
+    @Test
+    public void testSlopeOfSteadyGrowth() {
+        assertEquals(3.0, LeakCheck.slope(samples(Metric.THREADS, 10L, 13L, 16L, 19L), Metric.THREADS), 1e-9);
+    }
+
+    @Test
+    public void testSlopeOfFlatOrShrinkingMetric() {
+        assertEquals(0.0, LeakCheck.slope(samples(Metric.THREADS, 20L, 20L, 20L), Metric.THREADS), 1e-9);
+        assertEquals(-2.0, LeakCheck.slope(samples(Metric.THREADS, 10L, 8L, 6L), Metric.THREADS), 1e-9);
+    }
+
+    @Test
+    public void testSlopeIsLeastSquares() {
+        assertEquals(0.6, LeakCheck.slope(samples(Metric.OPEN_FILES, 1L, 0L, 3L, 2L), Metric.OPEN_FILES), 1e-9);
+    }
+
+    @Test
+    public void testSlopeSkipsUnsampledRounds() {
+        assertEquals(2.0, LeakCheck.slope(samples(Metric.LOADED_CLASSES, 0L, null, 4L, 6L), Metric.LOADED_CLASSES), 1e-9);
+    }
+
+    @Test
+    public void testSlopeNeedsTwoSamples() {
+        assertTrue(Double.isNaN(LeakCheck.slope(samples(Metric.THREADS), Metric.THREADS)));
+        assertTrue(Double.isNaN(LeakCheck.slope(samples(Metric.THREADS, 5L), Metric.THREADS)));
+        assertTrue(Double.isNaN(LeakCheck.slope(samples(Metric.THREADS, 5L, 6L), Metric.OLD_GEN_BYTES)));
+    }
+
+    private static List<Map<Metric, Long>> samples(Metric metric, Long... values) {
+        List<Map<Metric, Long>> samples = new ArrayList<>();
+        for (Long value : values) {
+            Map<Metric, Long> sample = new EnumMap<>(Metric.class);
+            if (value != null) sample.put(metric, value);
+            samples.add(sample);
+        }
+        return samples;
+    }
+}
@@ -0,0 +1,99 @@
+package com.adaptris.testing;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.CRC32C;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PayloadDigestTest {
+
+    @Test
+    public void testLengthAndChecksum() throws Exception {
+        byte[] bytes = "the quick brown fox".getBytes(StandardCharsets.UTF_8);
+        CRC32C crc = new CRC32C();
+        crc.update(bytes);
+        PayloadDigest digest = PayloadDigest.of(new ByteArrayInputStream(bytes), null);
+        assertEquals(bytes.length, digest.getLength());
+        assertEquals(crc.getValue(), digest.getChecksum());
+        assertEquals(0, digest.getRecords());
+    }
+
+    @Test
+    public void testCountsOverlappingMarkers() throws Exception {
+        assertEquals(3, PayloadDigest.of(stream("abababab"), bytes("abab")).getRecords());
+        assertEquals(2, PayloadDigest.of(stream("aaabaaab"), bytes("aab")).getRecords());
+    }
+
+    @Test
+    public void testCountsMarkersAcrossReads() throws Exception {
+        String text = "<record id=\"1\"/><record id=\"2\"/><rec<record id=\"3\"/>";
+        PayloadDigest whole = PayloadDigest.of(stream(text), bytes("<record "));
+        assertEquals(3, whole.getRecords());
+        for (int readSize = 1; readSize <= 9; readSize++) {
+            assertEquals(whole, PayloadDigest.of(new SmallReads(stream(text), readSize), bytes("<record ")), "reads of " + readSize);
+        }
+    }
+
+    @Test
+    public void testMatchesGeneratedRecords() throws Exception {
+        Payload xml = Payload.records(Payload.Format.XML, 1000, 10);
+        assertEquals(1000, xml.digest().getRecords());
+        Payload csv = Payload.records(Payload.Format.CSV, 1000, 10);
+        assertEquals(1001, csv.digest().getRecords());
+        try (InputStream in = new SmallReads(xml.openStream(), 5)) {
+            PayloadDigest.of(in, xml.getRecordMarker()).assertMatches(xml.digest());
+        }
+    }
+
+    @Test
+    public void testFileMatchesStream() throws Exception {
+        Payload payload = Payload.records(Payload.Format.JSON, 5000, 20);
+        Path file = Files.createTempFile("payload", ".json");
+        try {
+            payload.writeTo(file);
+            PayloadDigest.of(file, payload.getRecordMarker()).assertMatches(payload.digest()).assertRecords(5000);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testAssertMatchesFailsOnDifference() throws Exception {
+        PayloadDigest digest = PayloadDigest.of(stream("abc"), null);
+        assertThrows(AssertionError.class, () -> digest.assertMatches(PayloadDigest.of(stream("abd"), null)));
+        assertThrows(AssertionError.class, () -> digest.assertRecords(1));
+    }
+
+    private static InputStream stream(String text) {
+        return new ByteArrayInputStream(bytes(text));
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns at most {@code readSize} bytes per read, so that markers are split between buffers.
+     */
+    private static class SmallReads extends FilterInputStream {
+        private final int readSize;
+
+        SmallReads(InputStream in, int readSize) {
+            super(in);
+            this.readSize = readSize;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            return super.read(buffer, offset, Math.min(length, readSize));
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.adaptris.testing;
+
+import org.junit.jupiter.api.Test;
+
+import javax.management.remote.JMXServiceURL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PortAllocatorTest {
+
+    @Test
+    public void testWithPortReplacesServicePort() throws Exception {
+        JMXServiceURL url = new JMXServiceURL("service:jmx:jmxmp://localhost:5555");
+        assertEquals(new JMXServiceURL("service:jmx:jmxmp://localhost:20001"), PortAllocator.withPort(url, 20001));
+    }
+
+    @Test
+    public void testWithPortReplacesRmiRegistryPort() throws Exception {
+        JMXServiceURL url = new JMXServiceURL("service:jmx:rmi:///jndi/rmi://localhost:1099/jmxrmi");
+        assertEquals(new JMXServiceURL("service:jmx:rmi:///jndi/rmi://localhost:20001/jmxrmi"), PortAllocator.withPort(url, 20001));
+    }
+
+    @Test
+    public void testWithPortLeavesUrlWithoutPort() throws Exception {
+        JMXServiceURL url = new JMXServiceURL("service:jmx:rmi:///stub/abc");
+        assertEquals(url, PortAllocator.withPort(url, 20001));
+    }
+
+    @Test
+    public void testReserveBlockSkipsLockedBlocks() throws Exception {
+        Path lockDir = Files.createTempDirectory("ports");
+        int first = PortAllocator.reserveBlock(lockDir, 3, 1);
+        int second = PortAllocator.reserveBlock(lockDir, 3, 1);
+        int third = PortAllocator.reserveBlock(lockDir, 3, 1);
+        assertEquals(1, first);
+        assertEquals(2, second);
+        assertEquals(0, third);
+        assertEquals(-1, PortAllocator.reserveBlock(lockDir, 3, 1));
+    }
+
+    @Test
+    public void testDefaultBlocksStayBelowEphemeralRange() {
+        PortAllocator allocator = PortAllocator.getInstance();
+        if (allocator.getLastPort() >= allocator.getFirstPort()) {
+            assertTrue(allocator.getFirstPort() >= 20000);
+            assertTrue(allocator.getLastPort() < 32768);
+        }
+    }
+}
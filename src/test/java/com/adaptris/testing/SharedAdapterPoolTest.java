@@ -0,0 +1,55 @@
+package com.adaptris.testing;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SharedAdapterPoolTest {
+    private final File bootstrapFile = new File("config/bootstrap.properties");
+
+    @Test
+    public void testFingerprintIgnoresPropertyOrder() {
+        Properties first = properties("a", "1", "b", "2");
+        Properties second = properties("b", "2", "a", "1");
+        assertEquals(SharedAdapterPool.fingerprint(bootstrapFile, first, new Properties()),
+                SharedAdapterPool.fingerprint(bootstrapFile, second, new Properties()));
+    }
+
+    @Test
+    public void testFingerprintIgnoresTransientProperties() {
+        Properties bootstrap = properties("adapterConfigUrl", "file://localhost/./config/adapter.xml");
+        Properties variables = properties("http.path", "/api");
+        String fingerprint = SharedAdapterPool.fingerprint(bootstrapFile, bootstrap, variables);
+
+        bootstrap.setProperty("webServerPort", "12345");
+        bootstrap.setProperty("variable-substitution.properties.url.0", "variables.properties.3");
+        variables.setProperty("sysprop.jetty.http.port", "12345");
+        assertEquals(fingerprint, SharedAdapterPool.fingerprint(bootstrapFile, bootstrap, variables));
+    }
+
+    @Test
+    public void testFingerprintChangesWithConfiguration() {
+        Properties bootstrap = properties("adapterConfigUrl", "file://localhost/./config/adapter.xml");
+        String fingerprint = SharedAdapterPool.fingerprint(bootstrapFile, bootstrap, properties("http.path", "/api"));
+        assertNotEquals(fingerprint, SharedAdapterPool.fingerprint(bootstrapFile, bootstrap, properties("http.path", "/other")));
+        assertNotEquals(fingerprint, SharedAdapterPool.fingerprint(new File("other/bootstrap.properties"), bootstrap, properties("http.path", "/api")));
+    }
+
+    @Test
+    public void testFingerprintDistinguishesBootstrapFromVariables() {
+        Properties property = properties("key", "value");
+        assertNotEquals(SharedAdapterPool.fingerprint(bootstrapFile, property, new Properties()),
+                SharedAdapterPool.fingerprint(bootstrapFile, new Properties(), property));
+    }
+
+    private static Properties properties(String... keyValues) {
+        Properties properties = new Properties();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            properties.setProperty(keyValues[i], keyValues[i + 1]);
+        }
+        return properties;
+    }
+}
@@ -0,0 +1,81 @@
+package com.adaptris.testing;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestClassHistoryTest {
+    private Path history;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        history = Files.createTempDirectory("history").resolve("class-history.csv");
+        System.setProperty(TestClassHistory.HISTORY_PROPERTY, history.toString());
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        System.clearProperty(TestClassHistory.HISTORY_PROPERTY);
+        Files.deleteIfExists(history);
+        Files.deleteIfExists(history.getParent());
+    }
+
+    @Test
+    public void testNothingRecordedWithoutHistory() {
+        System.clearProperty(TestClassHistory.HISTORY_PROPERTY);
+        TestClassHistory.record(String.class, "abc", 100);
+        assertFalse(Files.exists(history));
+        assertTrue(TestClassHistory.load().isEmpty());
+    }
+
+    @Test
+    public void testLoadAveragesTheLastRuns() {
+        for (long duration : new long[] {1000, 10, 20, 30, 40, 50}) {
+            TestClassHistory.record(String.class, "fp-" + duration, duration);
+        }
+        TestClassHistory.record(Integer.class, null, 7);
+        Map<String, TestClassHistory.Entry> entries = TestClassHistory.load();
+        assertEquals(30, entries.get(String.class.getName()).getDurationMillis());
+        assertEquals("fp-50", entries.get(String.class.getName()).getFingerprint());
+        assertEquals(7, entries.get(Integer.class.getName()).getDurationMillis());
+        assertEquals("", entries.get(Integer.class.getName()).getFingerprint());
+    }
+
+    @Test
+    public void testLoadSkipsDamagedLines() throws Exception {
+        Files.write(history, List.of("timestamp,class,fingerprint,durationMs", "1,a.B,fp,100", "2,a.B,fp,1x", "3,a.B,fp"),
+                StandardCharsets.UTF_8);
+        assertEquals(100, TestClassHistory.load(history).get("a.B").getDurationMillis());
+    }
+
+    @Test
+    public void testCompactsToTheLastRunsOfEachClass() throws Exception {
+        StringBuilder text = new StringBuilder("timestamp,class,fingerprint,durationMs\n");
+        for (int i = 0; text.length() <= TestClassHistory.MAX_HISTORY_BYTES; i++) {
+            text.append(i).append(",a.Old,fp,").append(i % 2 == 0 ? 100 : 1000).append('\n');
+            text.append(i).append(",a.Other,fp,").append(i).append('\n');
+        }
+        Files.write(history, text.toString().getBytes(StandardCharsets.UTF_8));
+        Map<String, TestClassHistory.Entry> before = TestClassHistory.load(history);
+
+        TestClassHistory.record(String.class, "fp", 42);
+        assertTrue(Files.size(history) < 1024, "history was not compacted: " + Files.size(history) + " bytes");
+        List<String> lines = Files.readAllLines(history, StandardCharsets.UTF_8);
+        assertEquals("timestamp,class,fingerprint,durationMs", lines.get(0));
+        assertEquals(1 + 2 * TestClassHistory.RUNS_TO_AVERAGE + 1, lines.size());
+        assertTrue(lines.get(lines.size() - 1).contains("," + String.class.getName() + ",fp,42"));
+
+        Map<String, TestClassHistory.Entry> after = TestClassHistory.load(history);
+        assertEquals(before.get("a.Old").getDurationMillis(), after.get("a.Old").getDurationMillis());
+        assertEquals(before.get("a.Other").getDurationMillis(), after.get("a.Other").getDurationMillis());
+        assertEquals(42, after.get(String.class.getName()).getDurationMillis());
+    }
+}